@@ -0,0 +1,101 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.environment;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link MovementKernel} using the JDK Vector API, which moves as many agents at a time
+ * as the preferred vector width of the machine allows.
+ *
+ * The Vector API is an incubator module, so this class lives in its own source folder
+ * and is compiled and run with it added:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp (classes) -d (classes) src-vector/simzombie/engine/environment/VectorMovementKernel.java
+ * java --add-modules jdk.incubator.vector ...
+ * </pre>
+ * Without either, {@link Environment} moves agents one at a time as before.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class VectorMovementKernel implements MovementKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void advance(int[] xs, int[] ys, int[] dxs, int[] dys, int[] slots, int count,
+	    int width, int height, int[] nextXs, int[] nextYs)
+    {
+	int i = 0;
+	int bound = SPECIES.loopBound(count);
+	for (; i < bound; i += SPECIES.length())
+	{
+	    IntVector x = IntVector.fromArray(SPECIES, xs, 0, slots, i);
+	    IntVector dx = IntVector.fromArray(SPECIES, dxs, 0, slots, i);
+	    IntVector nextX = x.add(dx);
+	    VectorMask<Integer> outX = nextX.compare(VectorOperators.LT, 0).or(nextX.compare(VectorOperators.GE, width));
+	    if (outX.anyTrue())
+	    {
+		dx = dx.blend(dx.neg(), outX);
+		dx.intoArray(dxs, 0, slots, i, outX);
+		nextX = x.add(dx);
+	    }
+	    nextX.intoArray(nextXs, i);
+
+	    IntVector y = IntVector.fromArray(SPECIES, ys, 0, slots, i);
+	    IntVector dy = IntVector.fromArray(SPECIES, dys, 0, slots, i);
+	    IntVector nextY = y.add(dy);
+	    VectorMask<Integer> outY = nextY.compare(VectorOperators.LT, 0).or(nextY.compare(VectorOperators.GE, height));
+	    if (outY.anyTrue())
+	    {
+		dy = dy.blend(dy.neg(), outY);
+		dy.intoArray(dys, 0, slots, i, outY);
+		nextY = y.add(dy);
+	    }
+	    nextY.intoArray(nextYs, i);
+	}
+	// the agents left over when the count is not a whole number of vectors
+	for (; i < count; i++)
+	{
+	    int slot = slots[i];
+	    int nextX = xs[slot] + dxs[slot];
+	    if (nextX < 0 || nextX >= width)
+	    {
+		dxs[slot] = -dxs[slot];
+		nextX = xs[slot] + dxs[slot];
+	    }
+	    int nextY = ys[slot] + dys[slot];
+	    if (nextY < 0 || nextY >= height)
+	    {
+		dys[slot] = -dys[slot];
+		nextY = ys[slot] + dys[slot];
+	    }
+	    nextXs[i] = nextX;
+	    nextYs[i] = nextY;
+	}
+    }
+}
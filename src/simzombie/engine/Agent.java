@@ -23,6 +23,7 @@
 package simzombie.engine;
 
 import simzombie.engine.utils.Location;
+import simzombie.engine.environment.AgentStore;
 import simzombie.engine.environment.CellReference;
 import simzombie.engine.utils.AgentCounter;
 import java.io.Serializable;
@@ -153,6 +154,28 @@ public abstract class Agent implements Serializable {
 	acquireNewDirections();
     }
 
+    /**
+     * Constructs an agent from the state held in a slot of an {@link AgentStore}
+     *
+     * No random numbers are used, and the agent keeps the id, location and
+     * direction of the stored agent
+     * @param store Store holding the agent
+     * @param slot Slot of the agent within the store
+     * @param parameters Parameters of the simulation the agent belongs to
+     * @param r Random object for consistent randomisation
+     */
+    protected Agent(AgentStore store, int slot, Parameters parameters, Random r)
+    {
+	this.r = r;
+	this.parameters = parameters;
+	id = store.getId(slot);
+	location = new Location(store.getX(slot), store.getY(slot));
+	cr = new CellReference(location, parameters.getCellWidth(), parameters.getCellHeight());
+	dx = store.getDx(slot);
+	dy = store.getDy(slot);
+	age = store.getAge(slot);
+    }
+
     /**
      * Randomly change direction
      *
@@ -300,6 +323,35 @@ public abstract class Agent implements Serializable {
 	to.type = from.type;
     }
 
+    /**
+     * Accessor for age
+     * @return Age of this agent
+     */
+    public int getAge()
+    {
+	return age;
+    }
+
+    /**
+     * Number of steps until this agent's latency period has elapsed
+     *
+     * Agents without a latency period return 0
+     * @return Steps remaining in the latency period
+     */
+    public int getLatency()
+    {
+	return 0;
+    }
+
+    /**
+     * Whether this agent never moves, regardless of its direction
+     * @return True if the agent cannot move
+     */
+    public boolean isImmobile()
+    {
+	return false;
+    }
+
     /**
      * Accessor for ID
      * @return ID of this agent
@@ -22,28 +22,45 @@
 
 package simzombie.engine;
 
+import simzombie.engine.environment.Environment;
 import simzombie.engine.simulations.zombies.ZombieParameters;
 import simzombie.engine.simulations.zombies.ZombieSimulation;
-import java.awt.BorderLayout;
 import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
-import javax.swing.JFrame;
 
 /**
- * An alternative startup option to SimZombie which runs the application headless.
- * 
- * Currently only supports default parameters unless explicitly coded,
- * could be extended later to open a saved Parameters file, or display the parameters
- * window before commencing simulation execution
+ * An alternative startup option to SimZombie which runs a single simulation headless,
+ * for running batches of simulations on machines without a display.
+ *
+ * The counts of each agent type are written and flushed as each step completes, so a
+ * long run can be watched (or stopped) part way through.  The parameters classes are
+ * also the panels which edit them in SimZombie, so Swing classes are loaded, but no
+ * window is opened and the AWT toolkit is never started; the run is marked headless.
+ *
+ * Usage:
+ * <pre>
+ * java simzombie.engine.CommandLineRunner [-params file] [-seed n] [-steps n]
+ *      [-output file] [-format csv|matlab] [-threads n]
+ * </pre>
+ * <ul>
+ * <li>-params: parameters saved from SimZombie, otherwise the defaults are used</li>
+ * <li>-seed: seed for the run, otherwise the one in the parameters</li>
+ * <li>-steps: most steps to run, otherwise runs until the simulation ends</li>
+ * <li>-output: file to write the counts to, otherwise standard output</li>
+ * <li>-format: csv (the default), or matlab for a matrix and plot commands</li>
+ * <li>-threads: threads used within each step, otherwise the number in the parameters</li>
+ * </ul>
  *
  * @author      Matthew Crossley <m.crossley@mmu.ac.uk>
  * @version     1.0
@@ -51,93 +68,252 @@ import javax.swing.JFrame;
  */
 public class CommandLineRunner {
 
-    // could be a command line arg too
-    private static final boolean graphicsOn = false;
+    /**
+     * How the counts are written out
+     */
+    public enum Format { CSV, MATLAB }
+
+    /**
+     * Names of the arguments described in the class documentation
+     */
+    private static final List<String> ARGUMENTS = Arrays.asList("-params", "-seed", "-steps", "-output", "-format", "-threads");
+
+    private File parametersFile = null;
+    private Long seed = null;
+    private int steps = 0;
+    private File output = null;
+    private Format format = Format.CSV;
+    private int threads = 0;
+
+    /**
+     * Reads the arguments described in the class documentation
+     * @param args Command line arguments
+     * @throws IllegalArgumentException If an argument is unknown, missing its value, or has an invalid value
+     */
+    public CommandLineRunner(String [] args)
+    {
+	for (int i = 0; i < args.length; i++)
+	{
+	    String name = args[i];
+	    if (!ARGUMENTS.contains(name))
+	    {
+		throw new IllegalArgumentException("Unknown argument " + name);
+	    }
+	    if (i + 1 >= args.length)
+	    {
+		throw new IllegalArgumentException("Missing value for " + name);
+	    }
+	    String value = args[++i];
+	    try
+	    {
+		if (name.equals("-params"))
+		{
+		    parametersFile = new File(value);
+		}
+		else if (name.equals("-seed"))
+		{
+		    seed = Long.parseLong(value);
+		}
+		else if (name.equals("-steps"))
+		{
+		    steps = Integer.parseInt(value);
+		}
+		else if (name.equals("-output"))
+		{
+		    output = value.equals("-") ? null : new File(value);
+		}
+		else if (name.equals("-format"))
+		{
+		    format = parseFormat(value);
+		}
+		else if (name.equals("-threads"))
+		{
+		    threads = Integer.parseInt(value);
+		}
+	    }
+	    catch (NumberFormatException ex)
+	    {
+		throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+	    }
+	}
+    }
+
+    private static Format parseFormat(String value)
+    {
+	for (Format f : Format.values())
+	{
+	    if (f.name().equalsIgnoreCase(value))
+	    {
+		return f;
+	    }
+	}
+	throw new IllegalArgumentException("Invalid value for -format: " + value);
+    }
+
+    /**
+     * Loads the parameters and applies the arguments which override them
+     * @return Parameters for the run
+     * @throws IOException If the parameters file cannot be read, or does not hold zombie parameters
+     */
+    public ZombieParameters loadParameters() throws IOException
+    {
+	ZombieParameters zp = ZombieParameters.getDefaultParameters();
+	if (parametersFile != null)
+	{
+	    ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(parametersFile))));
+	    try
+	    {
+		Object o = ois.readObject();
+		if (!(o instanceof ZombieParameters))
+		{
+		    throw new IOException(parametersFile.getPath() + " does not contain zombie simulation parameters");
+		}
+		zp = (ZombieParameters) o;
+	    }
+	    catch (ClassNotFoundException ex)
+	    {
+		throw new IOException(parametersFile.getPath() + " does not contain zombie simulation parameters", ex);
+	    }
+	    finally
+	    {
+		ois.close();
+	    }
+	}
+	if (seed != null)
+	{
+	    zp.setSeed(seed);
+	}
+	if (threads > 0)
+	{
+	    zp.setThreads(threads);
+	}
+	// nothing reads the history of a headless run
+	zp.setLoggingEnabled(false);
+	return zp;
+    }
+
+    /**
+     * Runs the simulation, writing the counts as each step completes
+     * @param zp Parameters for the run
+     * @param out Where to write the counts; flushed after each step but not closed
+     * @return Number of steps run
+     * @throws IOException If the counts cannot be written
+     */
+    public int run(ZombieParameters zp, Writer out) throws IOException
+    {
+	ZombieSimulation zs = new ZombieSimulation(zp);
+	Environment environment = zp.getEnvironment();
+
+	// this initialises the simulation
+	zs.configureEnvironment(environment);
+
+	AgentType[] types = zs.getAgentTypes();
+	StringBuilder row = new StringBuilder();
+
+	row.append(format == Format.CSV ? "Step" : "% Step");
+	for (AgentType at : types)
+	{
+	    row.append(format == Format.CSV ? ',' : ' ').append(at.getName());
+	}
+	row.append(format == Format.CSV ? ",Total\n" : " Total\nCounts = [\n");
+	out.write(row.toString());
+
+	// the starting state is step 0, as in the table and graph of SimZombie
+	int step = 0;
+	writeCounts(out, row, step, types, environment);
+	boolean terminated = false;
+	while (!terminated && (steps <= 0 || step < steps))
+	{
+	    terminated = zs.updateEnvironment(environment);
+	    step++;
+	    writeCounts(out, row, step, types, environment);
+	}
+
+	if (format == Format.MATLAB)
+	{
+	    out.write("];\n");
+	    out.write("hold on\n");
+	    for (int i = 0; i < types.length; i++)
+	    {
+		out.write("plot(Counts(:, 1), Counts(:, " + (i + 2) + "))\n");
+	    }
+	    out.write("hold off\n");
+	}
+	out.flush();
+	return step;
+    }
+
+    /**
+     * Writes and flushes the row of counts for a step
+     * @param out Where to write the counts
+     * @param row Builder reused for each row
+     * @param step Number of steps run
+     * @param types Agent types of the simulation, in column order
+     * @param environment Environment being simulated
+     * @throws IOException If the counts cannot be written
+     */
+    private void writeCounts(Writer out, StringBuilder row, int step, AgentType[] types, Environment environment) throws IOException
+    {
+	row.setLength(0);
+	row.append(step);
+	for (AgentType at : types)
+	{
+	    row.append(format == Format.CSV ? ',' : ' ').append(environment.countAgentsOfType(at));
+	}
+	row.append(format == Format.CSV ? ',' : ' ').append(environment.getAgentStore().size());
+	row.append(format == Format.CSV ? "\n" : ";\n");
+	out.write(row.toString());
+	out.flush();
+    }
+
+    private static void printUsage()
+    {
+	System.err.println("Usage: java simzombie.engine.CommandLineRunner [-params file] [-seed n] [-steps n]");
+	System.err.println("       [-output file] [-format csv|matlab] [-threads n]");
+    }
 
     public static void main(String [] args)
     {
-        ZombieParameters zp = new ZombieParameters();
-
-        ObjectInputStream ois;
-        try {
-            ois = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(new File("/zombie.param")))));
-            Object o = ois.readObject();
-            if (o instanceof ZombieParameters)
-            {
-                zp = (ZombieParameters) o;
-            }
-        } catch (IOException ex) {
-            System.err.println("WARNING: Zombie Parameters File not found - using defaults");
-        } catch (ClassNotFoundException ex) {
-            Logger.getLogger(CommandLineRunner.class.getName()).log(Level.SEVERE, null, ex);
-        }
-
-
-        // code here to assign command line variables to zp, eg
-        // zp.setChanceInfectionTransmits(chance);
-
-        ZombieSimulation zs = new ZombieSimulation(zp);
-
-        // this initialises the simulation
-        zs.configureEnvironment(zp.getEnvironment());
-
-
-        JFrame frame = new JFrame("Simulation");
-        SimCanvas ep = new SimCanvas(zp, zs.getAgentTypes());
-        if (graphicsOn)
-        {
-            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            // this sizing isn't very clean, sorry!
-            frame.setSize(zp.getEnvironmentWidth() + 20, zp.getEnvironmentHeight() + 40);
-            frame.setLayout(new BorderLayout());
-            frame.add(ep, BorderLayout.NORTH);
-            frame.setVisible(true);
-        }
-
-        StringBuffer countB = new StringBuffer();
-        int count = 0;
-        countB.append("Count = [ ");
-        Map<AgentType, StringBuffer> outputs = new HashMap<AgentType, StringBuffer>();
-
-        for (AgentType at : zs.getAgentTypes())
-        {
-            StringBuffer sb = new StringBuffer();
-            sb.append(at.getName() + " = [ ");
-            outputs.put(at, sb);
-        }
-
-        boolean terminated = false;
-        while (!terminated)
-        {
-            count++;
-            countB.append(count + " ");
-            terminated = zs.updateEnvironment(zp.getEnvironment());
-            if (graphicsOn)
-            {
-                ep.repaint();
-            }
-            for (AgentType at : zs.getAgentTypes())
-            {
-                List<Agent> l = zp.getEnvironment().getAgentsOfType(at);
-                outputs.get(at).append(l.size() + " ");
-            }
-        }
-
-        countB.append("];\n");
-        System.out.println(countB);
-
-        for (AgentType at : zs.getAgentTypes())
-        {
-            StringBuffer sb = outputs.get(at);
-            sb.append("];\n");
-            System.out.println(sb);
-        }
-
-        System.out.println("hold on");
-        System.out.println("plot(Count, Susceptible, 'g')");
-        System.out.println("plot(Count, Monsterified, 'r')");
-        System.out.println("plot(Count, Infected, 'y')");
-        System.out.println("hold off");
+	System.setProperty("java.awt.headless", "true");
+
+	CommandLineRunner runner;
+	ZombieParameters zp;
+	try
+	{
+	    runner = new CommandLineRunner(args);
+	    zp = runner.loadParameters();
+	}
+	catch (IllegalArgumentException ex)
+	{
+	    System.err.println(ex.getMessage());
+	    printUsage();
+	    System.exit(1);
+	    return;
+	}
+	catch (IOException ex)
+	{
+	    System.err.println("Could not load parameters: " + ex.getMessage());
+	    System.exit(1);
+	    return;
+	}
+
+	try
+	{
+	    OutputStream stream = runner.output == null ? System.out : new FileOutputStream(runner.output);
+	    Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+	    long start = System.currentTimeMillis();
+	    int stepsRun = runner.run(zp, out);
+	    if (runner.output != null)
+	    {
+		out.close();
+	    }
+	    System.err.println(stepsRun + " steps in " + (System.currentTimeMillis() - start) + " ms, seed " + zp.getSeed());
+	}
+	catch (IOException ex)
+	{
+	    System.err.println("Could not write counts: " + ex.getMessage());
+	    System.exit(1);
+	}
     }
 
 }
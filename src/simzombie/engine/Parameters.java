@@ -27,9 +27,12 @@ import simzombie.engine.environment.EnvironmentEditor;
 import simzombie.engine.utils.CommitPanel;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -143,6 +146,38 @@ public abstract class Parameters implements Serializable {
      */
     private int repeats = 1;
 
+    /**
+     * Number of threads a simulation may use to run each step.  With 1 the step runs
+     * entirely on the simulation's own thread; either way, the same seed gives the same results
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Master seed every random number in a run is derived from.  Each repeat derives
+     * its own seed from this, so a run and all of its repeats can be reproduced exactly
+     */
+    private long seed = new Random().nextLong();
+
+    /**
+     * Number of steps between sorting the agents of a simulation by cell, so the agents
+     * of each cell sit together in memory; 0 never sorts.  Agents draw their random
+     * numbers by the slot they are kept in, so this is part of what a seed reproduces
+     */
+    private int sortInterval = 32;
+
+    /**
+     * Whether the state of the agents is kept outside the heap, see
+     * {@link Environment#setOffHeap(boolean)}.  Takes effect
+     * when the simulation next sets up its environment
+     */
+    private boolean offHeapStorage = false;
+
+    /**
+     * Version of the fields saved with these parameters.  Parameters saved before threads,
+     * seed and sortInterval were added read back as 0, see {@link #readObject(ObjectInputStream)}
+     */
+    private int fieldsVersion = 1;
+
     /**
      * Current time of the day
      */
@@ -210,12 +245,35 @@ public abstract class Parameters implements Serializable {
 	loggingEnabledBox.setSelected(getLoggingEnabled());
         loggingEnabledBox.setToolTipText("Unchecking this uses less memory, but the simulation will not be replayable or saveable");
 
+	final JCheckBox offHeapBox = new JCheckBox();
+	offHeapBox.setText("Store Agents Off Heap");
+	offHeapBox.setSelected(isOffHeapStorage());
+	offHeapBox.setToolTipText("Keeps garbage collection pauses short with very large populations, at a small cost to speed - takes effect when the simulation restarts");
+
         JLabel repeatsLabel = new JLabel("Repeats: ", JLabel.RIGHT);
         final JTextField repeatsField = new JTextField();
         repeatsLabel.setLabelFor(repeatsField);
         repeatsField.setText(getRepeats() + "");
         repeatsField.setToolTipText("This will restart the simulation with a new random seed immediately after simulation termination - useful for averaging over a number of runs");
 
+	JLabel threadsLabel = new JLabel("Threads: ", JLabel.RIGHT);
+	final JTextField threadsField = new JTextField();
+	threadsLabel.setLabelFor(threadsField);
+	threadsField.setText(getThreads() + "");
+	threadsField.setToolTipText("Number of processor cores each step may use - the results are the same whatever this is set to");
+
+	JLabel seedLabel = new JLabel("Seed: ", JLabel.RIGHT);
+	final JTextField seedField = new JTextField();
+	seedLabel.setLabelFor(seedField);
+	seedField.setText(getSeed() + "");
+	seedField.setToolTipText("Runs with the same seed and parameters give exactly the same results");
+
+	JLabel sortIntervalLabel = new JLabel("Sort agents every: ", JLabel.RIGHT);
+	final JTextField sortIntervalField = new JTextField();
+	sortIntervalLabel.setLabelFor(sortIntervalField);
+	sortIntervalField.setText(getSortInterval() + "");
+	sortIntervalField.setToolTipText("Number of steps between keeping the agents of each cell together in memory, which speeds up large populations - 0 never does");
+
 	CommitPanel simulationPanel = new CommitPanel("Simulation") {
 
 	    @Override
@@ -226,7 +284,11 @@ public abstract class Parameters implements Serializable {
 		    setStepDelay(Integer.parseInt(stepDelayField.getText()));
 		    setDisplayGraphics(showGraphics.isSelected());
 		    setLoggingEnabled(loggingEnabledBox.isSelected());
+		    setOffHeapStorage(offHeapBox.isSelected());
                     setRepeats(Integer.parseInt(repeatsField.getText()));
+		    setThreads(Integer.parseInt(threadsField.getText()));
+		    setSeed(Long.parseLong(seedField.getText().trim()));
+		    setSortInterval(Integer.parseInt(sortIntervalField.getText()));
 		    return true;
 		}
 		catch (NumberFormatException nfe)
@@ -249,15 +311,23 @@ public abstract class Parameters implements Serializable {
 			.addGroup(simulationGroupLayout.createParallelGroup(GroupLayout.Alignment.TRAILING)
 			    .addComponent(titleLabel)
 			    .addComponent(stepDelayLabel)
-                            .addComponent(repeatsLabel))
+			    .addComponent(repeatsLabel)
+			    .addComponent(threadsLabel)
+			    .addComponent(seedLabel)
+			    .addComponent(sortIntervalLabel))
 			.addGroup(simulationGroupLayout.createParallelGroup(GroupLayout.Alignment.LEADING)
 			    .addComponent(title)
 			    .addComponent(stepDelayField)
-                            .addComponent(repeatsField)))
+			    .addComponent(repeatsField)
+			    .addComponent(threadsField)
+			    .addComponent(seedField)
+			    .addComponent(sortIntervalField)))
 		    .addGroup(simulationGroupLayout.createSequentialGroup()
 			.addComponent(showGraphics))
 	            .addGroup(simulationGroupLayout.createSequentialGroup()
 			.addComponent(loggingEnabledBox))
+		    .addGroup(simulationGroupLayout.createSequentialGroup()
+			.addComponent(offHeapBox))
 		    );
 
 	simulationGroupLayout.setVerticalGroup(
@@ -271,10 +341,21 @@ public abstract class Parameters implements Serializable {
                     .addGroup(simulationGroupLayout.createParallelGroup(GroupLayout.Alignment.CENTER)
                         .addComponent(repeatsLabel)
                         .addComponent(repeatsField, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE))
+		    .addGroup(simulationGroupLayout.createParallelGroup(GroupLayout.Alignment.CENTER)
+			.addComponent(threadsLabel)
+			.addComponent(threadsField, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE))
+		    .addGroup(simulationGroupLayout.createParallelGroup(GroupLayout.Alignment.CENTER)
+			.addComponent(seedLabel)
+			.addComponent(seedField, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE))
+		    .addGroup(simulationGroupLayout.createParallelGroup(GroupLayout.Alignment.CENTER)
+			.addComponent(sortIntervalLabel)
+			.addComponent(sortIntervalField, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE))
 		    .addGroup(simulationGroupLayout.createParallelGroup()
 			.addComponent(showGraphics))
 		    .addGroup(simulationGroupLayout.createParallelGroup()
 			.addComponent(loggingEnabledBox))
+		    .addGroup(simulationGroupLayout.createParallelGroup()
+			.addComponent(offHeapBox))
 			);
 
 	returner.add(simulationPanel);
@@ -664,6 +745,22 @@ public abstract class Parameters implements Serializable {
 	this.name = name;
     }
 
+    /**
+     * Reads saved parameters, giving parameters saved by an earlier version the same
+     * threads, seed and sort interval new parameters start with, rather than zeroes
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+	in.defaultReadObject();
+	if (fieldsVersion < 1)
+	{
+	    threads = Runtime.getRuntime().availableProcessors();
+	    seed = new Random().nextLong();
+	    sortInterval = 32;
+	    fieldsVersion = 1;
+	}
+    }
+
     public Environment getEnvironment()
     {
 	return environment;
@@ -689,6 +786,78 @@ public abstract class Parameters implements Serializable {
         return repeats;
     }
 
+    /**
+     * Sets the number of threads a simulation may use to run each step
+     * @param threads Number of threads, at least 1
+     */
+    public void setThreads(int threads)
+    {
+	this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Get the number of threads a simulation may use to run each step
+     * @return Number of threads, at least 1
+     */
+    public int getThreads()
+    {
+	return threads;
+    }
+
+    /**
+     * Sets the master seed every random number in a run is derived from
+     * @param seed The seed
+     */
+    public void setSeed(long seed)
+    {
+	this.seed = seed;
+    }
+
+    /**
+     * Get the master seed every random number in a run is derived from
+     * @return The seed
+     */
+    public long getSeed()
+    {
+	return seed;
+    }
+
+    /**
+     * Sets the number of steps between sorting the agents by cell
+     * @param sortInterval Number of steps, or 0 to never sort
+     */
+    public void setSortInterval(int sortInterval)
+    {
+	this.sortInterval = Math.max(0, sortInterval);
+    }
+
+    /**
+     * Get the number of steps between sorting the agents by cell
+     * @return Number of steps, or 0 to never sort
+     */
+    public int getSortInterval()
+    {
+	return sortInterval;
+    }
+
+    /**
+     * Sets whether the state of the agents is kept outside the heap
+     * @param offHeapStorage True to keep it outside the heap, from the next time the simulation sets up its environment
+     */
+    public void setOffHeapStorage(boolean offHeapStorage)
+    {
+	this.offHeapStorage = offHeapStorage;
+    }
+
+    /**
+     * Whether the state of the agents is kept outside the heap
+     * @return True if it is kept outside the heap
+     */
+    public boolean isOffHeapStorage()
+    {
+	return offHeapStorage;
+    }
+
     public TimeOfDay getTimeOfDay() {
         return timeOfDay;
     }
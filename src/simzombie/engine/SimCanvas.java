@@ -22,8 +22,8 @@
 
 package simzombie.engine;
 
+import simzombie.engine.environment.AgentStore;
 import simzombie.engine.environment.Cell;
-import simzombie.engine.environment.CellReference;
 import simzombie.engine.environment.Environment;
 import simzombie.engine.simulations.zombies.ZombieParameters;
 import simzombie.engine.utils.Icons;
@@ -34,19 +34,25 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 /**
  * GUI component that displays a simulation
  *
- * Is back buffered for smooth animation, but requires a call to {@link #repaint()}
- * to update after the simulation has been updated
+ * Is back buffered for smooth animation.  The canvas never reads the agents while the
+ * simulation is changing them: after each step the simulation calls {@link #publish()},
+ * which copies what is drawn into a snapshot, and the canvas repaints from the latest
+ * snapshot at most {@link #FRAMES_PER_SECOND} times a second.
  *
  * @author      Matthew Crossley <m.crossley@mmu.ac.uk>
  * @version     1.0
@@ -54,6 +60,54 @@ import javax.swing.JPanel;
  */
 public class SimCanvas extends JPanel
 {
+    /**
+     * Most times a second the canvas repaints, however often snapshots are published
+     */
+    public static final int FRAMES_PER_SECOND = 30;
+
+    /**
+     * What the canvas draws of a single step, copied out of the environment so painting
+     * does not have to wait for the simulation.  A snapshot is not changed while it is
+     * {@link #published}, and is only filled again once {@link #recycled}.
+     */
+    private static final class Snapshot
+    {
+	private int count;
+	private int[] xs = new int[0];
+	private int[] ys = new int[0];
+	/**
+	 * {@link AgentType#getUniqueIdentifier() Unique identifier} of each agent's type
+	 */
+	private int[] types = new int[0];
+	private Parameters.TimeOfDay timeOfDay;
+	private int lunarPhase;
+	private boolean awarenessRaised;
+    }
+
+    /**
+     * Latest snapshot, written by {@link #publish()} and read by painting
+     */
+    private volatile Snapshot published;
+    /**
+     * A snapshot which is no longer published or painted, for {@link #publish()} to fill again
+     */
+    private final AtomicReference<Snapshot> recycled = new AtomicReference<Snapshot>();
+    /**
+     * Snapshot last painted, only used on the event dispatch thread
+     */
+    private Snapshot painted;
+    /**
+     * Repaints whenever a new snapshot has been published since the last paint
+     */
+    private final Timer frameTimer = new Timer(1000 / FRAMES_PER_SECOND, new ActionListener() {
+	public void actionPerformed(ActionEvent e) {
+	    if (published != painted)
+	    {
+		repaint();
+	    }
+	}
+    });
+
     private Image backBuffer;
 
     private Image sunIcon = Icons.getImage(Icons.sunIconLocation);
@@ -62,6 +116,10 @@ public class SimCanvas extends JPanel
     private Environment environment;
     private Parameters parameters;
     private Map<AgentType, Color> typeToColour = Collections.synchronizedMap(new HashMap<AgentType, Color> ());
+    /**
+     * Colour of each type, indexed by its {@link AgentType#getUniqueIdentifier() unique identifier}
+     */
+    private Color[] idToColour = new Color[0];
 
     public SimCanvas(Parameters p, AgentType[] agentTypes)
     {
@@ -78,6 +136,13 @@ public class SimCanvas extends JPanel
 	for (AgentType t : agentTypes)
 	{
 	    typeToColour.put(t, colors.next());
+	    if (t.getUniqueIdentifier() >= idToColour.length)
+	    {
+		Color[] grown = new Color[t.getUniqueIdentifier() + 1];
+		System.arraycopy(idToColour, 0, grown, 0, idToColour.length);
+		idToColour = grown;
+	    }
+	    idToColour[t.getUniqueIdentifier()] = typeToColour.get(t);
 	}
 
         Dimension size = new Dimension(Math.min(Toolkit.getDefaultToolkit().getScreenSize().width, parameters.getEnvironmentWidth()),
@@ -89,6 +154,53 @@ public class SimCanvas extends JPanel
         {
             moonIcons[i] = Icons.getImage(Icons.lunarPhaseLocations[i]);
         }
+        publish();
+    }
+
+    /**
+     * Copies the agents and the time of day into a new snapshot for the canvas to draw.
+     *
+     * Called by whichever thread is changing the environment, once it has finished a
+     * step, so the copy is never torn.  Never waits for painting.
+     */
+    public void publish()
+    {
+	Snapshot snapshot = recycled.getAndSet(null);
+	if (snapshot == null)
+	{
+	    snapshot = new Snapshot();
+	}
+	AgentStore agents = environment.getAgentStore();
+	int count = agents.size();
+	if (snapshot.xs.length < count)
+	{
+	    snapshot.xs = new int[count];
+	    snapshot.ys = new int[count];
+	    snapshot.types = new int[count];
+	}
+	for (int slot = 0; slot < count; slot++)
+	{
+	    snapshot.xs[slot] = agents.getX(slot);
+	    snapshot.ys[slot] = agents.getY(slot);
+	    snapshot.types[slot] = agents.getType(slot);
+	}
+	snapshot.count = count;
+	snapshot.timeOfDay = parameters.getTimeOfDay();
+	snapshot.lunarPhase = parameters.getCurrentLunarPhase();
+	snapshot.awarenessRaised = parameters instanceof ZombieParameters && ((ZombieParameters)parameters).isAwarenessRaised();
+	published = snapshot;
+    }
+
+    @Override
+    public void addNotify() {
+	super.addNotify();
+	frameTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+	frameTimer.stop();
+	super.removeNotify();
     }
 
     @Override
@@ -132,7 +244,7 @@ public class SimCanvas extends JPanel
         {
             for (int j = 0; j < parameters.getCellsHigh(); j++)
             {
-                Cell thisCell = environment.getCell(new CellReference(i, j));
+                Cell thisCell = environment.getCell(i, j);
 
                 // recolours a cell when an agent enters or leaves
                 // for testing purposes
@@ -160,39 +272,41 @@ public class SimCanvas extends JPanel
             }
         }
 
-        synchronized(environment.getAgents())
+        Snapshot snapshot = published;
+        if (snapshot != painted)
         {
-            for (Agent a : environment.getAgents())
+            // the last snapshot painted has been replaced, so nothing will read it again
+            if (painted != null)
             {
-//		    gbb.drawLine(a.getLocation().getX() - 2, a.getLocation().getY() - 2,
-//			    a.getLocation().getX() + a.getdx() - 2, a.getLocation().getY() + a.getdy() - 2);
-
-                gbb.setColor(typeToColour.get(a.getType()));
-                gbb.fillOval(a.getLocation().getX() - 2, a.getLocation().getY() - 2, 4, 4);
-                gbb.setColor(Color.BLACK);
-                gbb.drawOval(a.getLocation().getX() - 2, a.getLocation().getY() - 2, 4, 4);
+                recycled.set(painted);
             }
+            painted = snapshot;
+        }
+        for (int i = 0; i < snapshot.count; i++)
+        {
+            int x = snapshot.xs[i];
+            int y = snapshot.ys[i];
+            gbb.setColor(snapshot.types[i] < idToColour.length ? idToColour[snapshot.types[i]] : null);
+            gbb.fillOval(x - 2, y - 2, 4, 4);
+            gbb.setColor(Color.BLACK);
+            gbb.drawOval(x - 2, y - 2, 4, 4);
         }
 
         gbb.setColor(Color.BLACK);
         gbb.drawRect(0, 0, getWidth() - 1, getHeight() - 1);
 
-        if (parameters.getTimeOfDay() == Parameters.TimeOfDay.DAY)
+        if (snapshot.timeOfDay == Parameters.TimeOfDay.DAY)
         {
             gbb.drawImage(sunIcon, 8, 8, this);
         }
         else
         {
-            gbb.drawImage(moonIcons[parameters.getCurrentLunarPhase()], 8, 8, this);
+            gbb.drawImage(moonIcons[snapshot.lunarPhase], 8, 8, this);
         }
 
-        if (parameters instanceof ZombieParameters)
+        if (snapshot.awarenessRaised)
         {
-            ZombieParameters zp = (ZombieParameters)parameters;
-            if (zp.isAwarenessRaised())
-            {
-                gbb.drawImage(bellIcon, getWidth() - bellIcon.getWidth(this) - 8, 8, this);
-            }
+            gbb.drawImage(bellIcon, getWidth() - bellIcon.getWidth(this) - 8, 8, this);
         }
 
         g.drawImage(backBuffer, 0, 0, this);
@@ -33,6 +33,7 @@ import simzombie.engine.utils.JPGFilter;
 import simzombie.engine.utils.PARAMFilter;
 import simzombie.engine.utils.PNGFilter;
 import simzombie.engine.utils.SIMFilter;
+import simzombie.engine.utils.TickScheduler;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
@@ -55,6 +56,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -68,6 +72,7 @@ import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.UIManager;
@@ -94,6 +99,56 @@ public class SimZombie {
     private static final List<SimulationRunner> activeSimulations = Collections.synchronizedList(new ArrayList<SimulationRunner> ());
     private static final List<SimulationRunner> inactiveSimulations = Collections.synchronizedList(new ArrayList<SimulationRunner> ());
 
+    /**
+     * Sleeps between steps, so that no time is spent while nothing is due
+     */
+    private static final TickScheduler scheduler = new TickScheduler(1000);
+
+    /**
+     * Wakes the simulations up to check whether any step is due, such as after one is unpaused
+     */
+    public static void wakeSimulations()
+    {
+	scheduler.wake();
+    }
+
+    /**
+     * Number of workers stepping simulations, see {@link #setWorkerCount(int)}
+     */
+    private static int workerCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Workers which step the simulations, each stepping one simulation at a time
+     */
+    private static ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+
+    /**
+     * Sets the number of simulations which can be stepped at the same time.  Steps
+     * already handed to the old workers are allowed to finish.
+     * @param count Number of workers, at least 1
+     */
+    public static synchronized void setWorkerCount(int count)
+    {
+	count = Math.max(1, count);
+	if (count != workerCount)
+	{
+	    ExecutorService old = workers;
+	    workers = Executors.newFixedThreadPool(count);
+	    workerCount = count;
+	    old.shutdown();
+	}
+    }
+
+    public static synchronized int getWorkerCount()
+    {
+	return workerCount;
+    }
+
+    private static synchronized ExecutorService getWorkers()
+    {
+	return workers;
+    }
+
     public static void addFrame(JInternalFrame frame)
     {
 	boolean foundAFrame;
@@ -310,6 +365,7 @@ public class SimZombie {
 		    {
 			activeSimulations.add(s);
 		    }
+		    wakeSimulations();
 		}
 		else
 		{
@@ -354,6 +410,7 @@ public class SimZombie {
 		    SimulationRunner sr = new SimulationRunner(ss, new ZombieSimulation((ZombieParameters)ss.getParameters()));
 		    addFrame(sr.getFrame());
 		    activeSimulations.add(sr);
+		    wakeSimulations();
 		}
 		else
 		{
@@ -430,8 +487,30 @@ public class SimZombie {
 	    }
 	});
 
+	final JMenuItem workersMenuItem = new JMenuItem("Simulation Workers");
+	workersMenuItem.addActionListener(new ActionListener() {
+
+	    @Override
+	    public void actionPerformed(ActionEvent e) {
+		String count = JOptionPane.showInputDialog(frame, "Number of simulations to run at the same time:", getWorkerCount());
+		if (count != null)
+		{
+		    try
+		    {
+			setWorkerCount(Integer.parseInt(count.trim()));
+			setStatusText("Running up to " + getWorkerCount() + " simulations at the same time");
+		    }
+		    catch (NumberFormatException ex)
+		    {
+			setStatusText("\"" + count + "\" is not a number of workers");
+		    }
+		}
+	    }
+	});
+
 	menu.add(newSimulationMenuItem);
 	menu.add(loadSimulationMenuItem);
+	menu.add(workersMenuItem);
 	menubar.add(menu);
 	frame.setJMenuBar(menubar);
 
@@ -439,14 +518,49 @@ public class SimZombie {
     }
 
     static int count = 0;
-    public static void runSimulations()
+    /**
+     * Hands every active simulation which has something due to a worker.  A simulation
+     * is only stepped by one worker at a time, and wakes the simulations when it is done.
+     * @return Milliseconds until any simulation not already with a worker next has
+     * something due, see {@link SimulationRunner#getMillisUntilDue()}
+     */
+    public static long runSimulations()
     {
 	List<SimulationRunner> completeSims = new ArrayList<SimulationRunner>();
+	long untilDue = Long.MAX_VALUE;
+	ExecutorService pool = getWorkers();
 	synchronized(activeSimulations)
 	{
-	    for (SimulationRunner sim : activeSimulations)
+	    for (final SimulationRunner sim : activeSimulations)
 	    {
-		sim.update();
+		long due = sim.getMillisUntilDue();
+		if (due > 0 || !sim.claim())
+		{
+		    untilDue = Math.min(untilDue, due);
+		    continue;
+		}
+		try
+		{
+		    pool.execute(new Runnable() {
+			public void run() {
+			    try
+			    {
+				sim.update();
+			    }
+			    finally
+			    {
+				sim.release();
+				wakeSimulations();
+			    }
+			}
+		    });
+		}
+		catch (RejectedExecutionException ex)
+		{
+		    // the workers were replaced since the pool was fetched; try again next time round
+		    sim.release();
+		    untilDue = 0;
+		}
 	    }
 	}
 
@@ -490,6 +604,7 @@ public class SimZombie {
 	    if (completeSims.size() >= 1) SimZombie.setStatusText(status);
 	    completeSims.clear();
 	}
+	return untilDue;
     }
 
     public static void main(String [] args)
@@ -529,7 +644,7 @@ public class SimZombie {
 
 	while(true)
 	{
-	    runSimulations();
+	    scheduler.await(runSimulations());
 	}
     }
 }
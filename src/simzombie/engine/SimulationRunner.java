@@ -23,6 +23,7 @@
 package simzombie.engine;
 
 import simzombie.engine.environment.Environment;
+import simzombie.engine.graph.Graph;
 import simzombie.engine.graph.Plot;
 import simzombie.engine.simulations.Simulation;
 import simzombie.engine.simulations.zombies.ZombieParameters;
@@ -44,6 +45,8 @@ import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
@@ -64,6 +67,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -75,6 +80,7 @@ import javax.swing.JInternalFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
@@ -83,6 +89,7 @@ import javax.swing.JToolBar;
 import javax.swing.JToolBar.Separator;
 import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.event.InternalFrameEvent;
 import javax.swing.event.InternalFrameListener;
 import javax.swing.table.DefaultTableModel;
@@ -100,40 +107,100 @@ public class SimulationRunner {
     private final ArrayList<List<SavedStep>> collectionOfHistories = new ArrayList<List<SavedStep>>();
     private final List<SavedStep> simulationHistory = new Vector<SavedStep>();
     private ListIterator<SavedStep> simulationHistoryIterator = simulationHistory.listIterator();
-    private int updates = 0;
-    private long lastUpdate = System.currentTimeMillis();
+    // written by whichever worker holds the runner, read by the scheduler
+    private volatile int updates = 0;
+    private volatile long lastUpdate = System.currentTimeMillis();
     private long lastPauseTimer = System.currentTimeMillis();
     private SimCanvas sc; // = new SimCanvas();
     private GraphInternalFrame graphWindow;
     private GraphInternalFrame eulerGraphWindow;   
     private JInternalFrame tabularWindow = new JInternalFrame("Tabular Data");
-    private boolean simComplete = false;
-    private boolean paused = false;
+    private volatile boolean simComplete = false;
+    private volatile boolean paused = false;
+
+    /**
+     * Whether the graphics window is shown, and whether the canvas has missed steps
+     * while it was not, see {@link #publish()}
+     */
+    private volatile boolean graphicsShown = true;
+    private volatile boolean canvasStale = false;
     private String name;
     private JLabel frame = new JLabel();
+    /**
+     * Set while a worker is running {@link #update()}, so only one worker steps this simulation at a time
+     */
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    /**
+     * Steps completed since {@link #throughputStart}
+     */
+    private int throughputSteps = 0;
+    private long throughputStart = System.currentTimeMillis();
+    private volatile double stepsPerSecond = 0;
+    private JLabel throughput = new JLabel();
     private MSlider rewindSlider = new MSlider(0, 0);
     private final JButton pauseButton = new JButton("Pause");
     private final JButton rewindButton = new JButton("Rewind");
     private final JButton forwardButton = new JButton("Forward");
+    private final JButton fastForwardButton = new JButton("Fast Forward");
+    /**
+     * Steps left to run without updating the window, see {@link #fastForward(int)}
+     */
+    private final AtomicInteger fastForwardSteps = new AtomicInteger(0);
     private Map<AgentType, Color> typeToColour = Collections.synchronizedMap(new HashMap<AgentType, Color> ());
     private final List<Color> potentialColors = new ArrayList<Color> ();
 
     private void resetSimulation() 
     {
-        while(simulationHistoryIterator.hasNext())
-        {
-            simulationHistoryIterator.next();
-            simulationHistoryIterator.remove();
-        }
-        while(simulationHistoryIterator.hasPrevious())
-        {
-            simulationHistoryIterator.previous();
-            simulationHistoryIterator.remove();
-        }
+	synchronized(simulationHistory)
+	{
+	    while(simulationHistoryIterator.hasNext())
+	    {
+		simulationHistoryIterator.next();
+		simulationHistoryIterator.remove();
+	    }
+	    while(simulationHistoryIterator.hasPrevious())
+	    {
+		simulationHistoryIterator.previous();
+		simulationHistoryIterator.remove();
+	    }
+	}
         simulation.reset();
-        graphWindow.getGraph().reset();
+	onEventThread(new Runnable() {
+	    public void run() {
+		graphWindow.getGraph().reset();
+		graphWindow.repaint();
+	    }
+	});
         updates = 0;
     }
+
+    /**
+     * Runs a step of the numerical analysis on the calling thread, and adds the points it
+     * plots to the numerical analysis graph on the event dispatch thread, as the graph may
+     * be being painted
+     * @return True if the analysis has ended
+     */
+    private boolean updateNumericalAnalysis()
+    {
+	final List<Plot> plots = new ArrayList<Plot>();
+	boolean complete = simulation.updateNumericalAnalysis(new Graph(0, 0, 0, 0) {
+	    @Override
+	    public void addPlot(Plot p)
+	    {
+		plots.add(p);
+	    }
+	});
+	onEventThread(new Runnable() {
+	    public void run() {
+		for (Plot p : plots)
+		{
+		    eulerGraphWindow.getGraph().addPlot(p);
+		}
+		eulerGraphWindow.repaint();
+	    }
+	});
+	return complete;
+    }
     
     public Map<AgentType, Integer> getAgentCount()
     {
@@ -142,34 +209,83 @@ public class SimulationRunner {
 	{
 	    agentCount.put(a, 0);
 	}
-	for (Agent a : parameters.getEnvironment().getAgents())
+	for (AgentType a : simulation.getAgentTypes())
 	{
-	    agentCount.put(a.getType(), agentCount.get(a.getType()) + 1);
+	    agentCount.put(a, parameters.getEnvironment().countAgentsOfType(a));
 	}
 	return agentCount;
     }
 
-    private void forcePausedTo(boolean force)
+    private void forcePausedTo(final boolean force)
     {
-	if (force)
+	paused = force;
+	onEventThread(new Runnable() {
+	    public void run() {
+		if (force)
+		{
+		    pauseButton.setIcon(Icons.getImageIcon(Icons.playIconLocation));
+		}
+		else
+		{
+		    pauseButton.setIcon(Icons.getImageIcon(Icons.pauseIconLocation));
+		}
+		updateHistoryControls();
+	    }
+	});
+	if (!force)
 	{
-	    paused = true;
-	    pauseButton.setIcon(Icons.getImageIcon(Icons.playIconLocation));
+	    SimZombie.wakeSimulations();
+	}
+    }
 
-	    if (parameters.getLoggingEnabled())
-	    {
-		rewindSlider.setEnabled(true);
-		rewindButton.setEnabled(true);
-		forwardButton.setEnabled(true);
-	    }
+    /**
+     * Runs a change to the window on the event dispatch thread; straight away if this is
+     * that thread, otherwise later.  Simulations are stepped by workers, see {@link SimZombie#runSimulations()}
+     * @param change Change to make to the window
+     */
+    private static void onEventThread(Runnable change)
+    {
+	if (SwingUtilities.isEventDispatchThread())
+	{
+	    change.run();
 	}
 	else
 	{
-	    pauseButton.setIcon(Icons.getImageIcon(Icons.pauseIconLocation));
-	    paused = false;
-	    rewindSlider.setEnabled(false);
-	    rewindButton.setEnabled(false);
-	    forwardButton.setEnabled(false);
+	    SwingUtilities.invokeLater(change);
+	}
+    }
+
+    /**
+     * Enables rewinding and stepping through the history only while paused, logging, and
+     * not {@link #fastForward(int) fast forwarding}.  Called on the event dispatch thread.
+     */
+    private void updateHistoryControls()
+    {
+	boolean enabled = paused && parameters != null && parameters.getLoggingEnabled() && !isFastForwarding();
+	rewindSlider.setEnabled(enabled);
+	rewindButton.setEnabled(enabled);
+	forwardButton.setEnabled(enabled);
+    }
+
+    /**
+     * Makes a change to the history from the window, such as rewinding, unless a worker is
+     * stepping this simulation at the time, in which case the change is dropped
+     * @param change Change to make, run on the calling thread while this simulation is {@link #claim() claimed}
+     */
+    private void changeHistory(Runnable change)
+    {
+	if (!claim())
+	{
+	    return;
+	}
+	try
+	{
+	    change.run();
+	}
+	finally
+	{
+	    release();
+	    SimZombie.wakeSimulations();
 	}
     }
 
@@ -188,11 +304,12 @@ public class SimulationRunner {
 		{
 		    SavedStep ss = simulationHistoryIterator.next();
 		    forceSimulationToUpdateToStep(ss);
-		    rewindSlider.setValue(ss.getStepNumber(), false);
-		    graphWindow.getGraphCanvas().setPointer(ss.getStepNumber());
-		    graphWindow.getGraphCanvas().setDisplayPointer(true);
-		    sc.repaint();
-		    graphWindow.repaint();
+		    onEventThread(new Runnable() {
+			public void run() {
+			    graphWindow.getGraphCanvas().setDisplayPointer(true);
+			    graphWindow.repaint();
+			}
+		    });
 		    lastPauseTimer = System.currentTimeMillis();
 		}
 		return false;
@@ -200,71 +317,314 @@ public class SimulationRunner {
 	    
 	    if (simComplete) return true;
 
-	    graphWindow.getGraphCanvas().setDisplayPointer(false);
-
 	    boolean completesThisRun = simulation.updateEnvironment(parameters.getEnvironment());
 
 	    if (parameters.getLoggingEnabled())
 	    {
-		ArrayList<Agent> history = new ArrayList<Agent>();
-		synchronized(parameters.getEnvironment().getAgents())
-		{
-		    for (Agent a : parameters.getEnvironment().getAgents())
-		    {
-			history.add(a.createCopy());
-		    }
-		}
+		ArrayList<Agent> history = new ArrayList<Agent>(parameters.getEnvironment().getAgents());
 
                 ZombieParameters zp = (ZombieParameters) parameters;
 		SavedStep ss = new SavedStep(updates, history, zp.isAwarenessRaised());
 		simulationHistoryIterator.add(ss);
 	    }
 	    
-	    frame.setText(updates + "");
-	    rewindSlider.setMaximum(updates);
-	    rewindSlider.setValue(updates, false);
-
-	    Map<AgentType, Integer> agentCount = getAgentCount();
-
-	    updateGraph(agentCount);
-	    updateTable(agentCount);
+	    final int step = updates;
+	    final Map<AgentType, Integer> agentCount = getAgentCount();
+	    final int total = parameters.getEnvironment().getAgentStore().size();
+
+	    onEventThread(new Runnable() {
+		public void run() {
+		    graphWindow.getGraphCanvas().setDisplayPointer(false);
+		    frame.setText(step + "");
+		    rewindSlider.setMaximum(step);
+		    rewindSlider.setValue(step, false);
+		    updateGraph(step, agentCount, total);
+		    updateTable(step, agentCount, total);
+		}
+	    });
 
-            sc.repaint();
+	    publish();
 	    updates++;
 
             lastUpdate = System.currentTimeMillis();
+	    countThroughput(lastUpdate);
             return (completesThisRun);
         }
         return false;
     }
 
+    /**
+     * Runs the steps asked for by {@link #fastForward(int)}.  Each step is logged as
+     * usual, but only its counts are kept for the window, which is updated once all the
+     * steps have run.
+     * @return True if the simulation ended
+     */
+    private boolean fastForwardSimulation()
+    {
+	if (simulationHistoryIterator.hasNext())
+	{
+	    // carry on from the last step run, rather than replaying the history
+	    SavedStep last = simulationHistoryIterator.next();
+	    while (simulationHistoryIterator.hasNext())
+	    {
+		last = simulationHistoryIterator.next();
+	    }
+	    forceSimulationToUpdateToStep(last);
+	}
+
+	final int firstStep = updates;
+	final List<Map<AgentType, Integer>> counts = new ArrayList<Map<AgentType, Integer>>();
+	final List<Integer> totals = new ArrayList<Integer>();
+	boolean completes = false;
+
+	while (!completes && fastForwardSteps.getAndDecrement() > 0)
+	{
+	    completes = simulation.updateEnvironment(parameters.getEnvironment());
+
+	    if (parameters.getLoggingEnabled())
+	    {
+		ArrayList<Agent> history = new ArrayList<Agent>(parameters.getEnvironment().getAgents());
+
+		ZombieParameters zp = (ZombieParameters) parameters;
+		SavedStep ss = new SavedStep(updates, history, zp.isAwarenessRaised());
+		simulationHistoryIterator.add(ss);
+	    }
+
+	    counts.add(getAgentCount());
+	    totals.add(parameters.getEnvironment().getAgentStore().size());
+	    updates++;
+	    countThroughput(System.currentTimeMillis());
+	}
+	fastForwardSteps.set(0);
+
+	final int lastStep = updates - 1;
+	onEventThread(new Runnable() {
+	    public void run() {
+		graphWindow.getGraphCanvas().setDisplayPointer(false);
+		for (int i = 0; i < counts.size(); i++)
+		{
+		    updateGraph(firstStep + i, counts.get(i), totals.get(i));
+		    updateTable(firstStep + i, counts.get(i), totals.get(i));
+		}
+		frame.setText(lastStep + "");
+		rewindSlider.setMaximum(lastStep);
+		rewindSlider.setValue(lastStep, false);
+		fastForwardButton.setText("Fast Forward");
+		updateHistoryControls();
+	    }
+	});
+
+	publish();
+	lastUpdate = System.currentTimeMillis();
+	return completes;
+    }
+
+    /**
+     * Counts a completed step towards the throughput, and shows the rate about once a second
+     * @param now Time the step completed
+     */
+    private void countThroughput(long now)
+    {
+	throughputSteps++;
+	long elapsed = now - throughputStart;
+	if (elapsed >= 1000)
+	{
+	    stepsPerSecond = throughputSteps * 1000.0 / elapsed;
+	    throughputSteps = 0;
+	    throughputStart = now;
+	    final String rate = String.format("%.1f steps/s", stepsPerSecond);
+	    onEventThread(new Runnable() {
+		public void run() {
+		    throughput.setText(rate);
+		}
+	    });
+	}
+    }
+
+    /**
+     * Rate this simulation has been stepping at, measured over about the last second it ran
+     * @return Steps per second of wall clock time
+     */
+    public double getStepsPerSecond()
+    {
+	return stepsPerSecond;
+    }
+
     public void updateTable(Map<AgentType, Integer> agentCount)
+    {
+	updateTable(updates, agentCount, parameters.getEnvironment().getAgentStore().size());
+    }
+
+    private void updateTable(int step, Map<AgentType, Integer> agentCount, int total)
     {
 	Vector<Object> data = new Vector<Object> ();
-	data.add(updates);
+	data.add(step);
 	for (AgentType at : simulation.getAgentTypes())
 	{
 	    data.add(agentCount.get(at));
 	}
-	data.add(parameters.getEnvironment().getAgents().size());
+	data.add(total);
 	tableModel.addRow(data);
     }
 
     public void updateGraph(Map<AgentType, Integer> agentCount)
+    {
+	updateGraph(updates, agentCount, parameters.getEnvironment().getAgentStore().size());
+    }
+
+    private void updateGraph(int step, Map<AgentType, Integer> agentCount, int total)
     {
 	for (AgentType t : simulation.getAgentTypes())
 	{
 	    if (t == ZombieSimulation.SUSCEPTIBLE || t == ZombieSimulation.ZOMBIFIED || t == ZombieSimulation.REMOVED || t == ZombieSimulation.INFECTED)
-	    graphWindow.getGraph().addPlot(new Plot(t.getName(), updates, agentCount.get(t), typeToColour.get(t)));
+	    graphWindow.getGraph().addPlot(new Plot(t.getName(), step, agentCount.get(t), typeToColour.get(t)));
 	}
 
-	graphWindow.getGraph().addPlot(new Plot("Total", updates, parameters.getEnvironment().getAgents().size(), Color.darkGray));
+	graphWindow.getGraph().addPlot(new Plot("Total", step, total, Color.darkGray));
 	graphWindow.repaint();
     }
 
     public void setPaused(boolean set)
     {
         paused = set;
+	if (!paused)
+	{
+	    SimZombie.wakeSimulations();
+	}
+    }
+
+    /**
+     * How long until {@link #update()} next has something to do, so the thread running
+     * the simulations can sleep until then
+     * @return Milliseconds until the next step is due, 0 if one is due now, or
+     * Long.MAX_VALUE if nothing is due until the simulation is unpaused
+     */
+    public long getMillisUntilDue()
+    {
+	if (busy.get())
+	{
+	    // the worker stepping it wakes the simulations when it finishes
+	    return Long.MAX_VALUE;
+	}
+	if (isFastForwarding())
+	{
+	    return 0;
+	}
+	if (!eulerComplete)
+	{
+	    return 0;
+	}
+	if (paused)
+	{
+	    return Long.MAX_VALUE;
+	}
+	if (simComplete)
+	{
+	    return simulationHistoryIterator.hasNext() ? 0 : Long.MAX_VALUE;
+	}
+	// a step is due once more than the step delay has passed since the last
+	return Math.max(0, lastUpdate + parameters.getStepDelay() + 1 - System.currentTimeMillis());
+    }
+
+    /**
+     * Claims this simulation for a worker to run {@link #update()}
+     * @return True if claimed, or false if another worker already has it
+     */
+    boolean claim()
+    {
+	return busy.compareAndSet(false, true);
+    }
+
+    /**
+     * Releases this simulation once the worker which {@link #claim() claimed} it has finished
+     */
+    void release()
+    {
+	busy.set(false);
+	publishIfStale();
+    }
+
+    /**
+     * Publishes the agents to the canvas after a step, unless the graphics window is
+     * hidden; copying every agent is then left until the window is shown again.  Called
+     * by whoever has {@link #claim() claimed} the simulation.
+     */
+    private void publish()
+    {
+	if (graphicsShown)
+	{
+	    sc.publish();
+	}
+	else
+	{
+	    canvasStale = true;
+	}
+    }
+
+    /**
+     * Publishes the agents if steps were skipped while the graphics window was hidden and
+     * it is now shown, provided nobody is stepping the simulation; whoever is will call
+     * this again as they {@link #release()} it
+     */
+    private void publishIfStale()
+    {
+	if (canvasStale && graphicsShown && claim())
+	{
+	    try
+	    {
+		canvasStale = false;
+		sc.publish();
+	    }
+	    finally
+	    {
+		busy.set(false);
+	    }
+	}
+    }
+
+    /**
+     * Runs a number of steps as fast as the simulation allows, even while paused.  Only
+     * the counts are collected on the way, and the graph, table and canvas are updated
+     * once at the end.  Stops early if the simulation ends, and does nothing if it already has.
+     * @param steps Number of steps to run, or 0 or less to run until the simulation ends
+     */
+    public void fastForward(int steps)
+    {
+	if (simComplete)
+	{
+	    return;
+	}
+	fastForwardSteps.set(steps > 0 ? steps : Integer.MAX_VALUE);
+	SimZombie.wakeSimulations();
+	onEventThread(new Runnable() {
+	    public void run() {
+		fastForwardButton.setText("Stop");
+		updateHistoryControls();
+	    }
+	});
+    }
+
+    /**
+     * Stops a {@link #fastForward(int) fast forward} after the step it is running
+     */
+    public void cancelFastForward()
+    {
+	fastForwardSteps.set(0);
+	onEventThread(new Runnable() {
+	    public void run() {
+		fastForwardButton.setText("Fast Forward");
+		updateHistoryControls();
+	    }
+	});
+    }
+
+    /**
+     * Whether a {@link #fastForward(int) fast forward} has steps left to run
+     * @return True if fast forwarding
+     */
+    public boolean isFastForwarding()
+    {
+	return fastForwardSteps.get() > 0 && !simComplete;
     }
 
     public String getName()
@@ -272,7 +632,7 @@ public class SimulationRunner {
 	return name;
     }
 
-    private boolean eulerComplete = false;
+    private volatile boolean eulerComplete = false;
     
     public boolean update()
     {
@@ -280,16 +640,15 @@ public class SimulationRunner {
         {
 	    if (!eulerComplete)
 	    {
-		eulerComplete = simulation.updateNumericalAnalysis(eulerGraphWindow.getGraph());
-		eulerGraphWindow.repaint();
+		eulerComplete = updateNumericalAnalysis();
 	    }
 
-            if (!paused)
+	    if (!paused || isFastForwarding())
             {
 		if (!simComplete)
 		{
 		    boolean oldSimComplete = simComplete;
-		    simComplete = updateSimulation();
+		    simComplete = isFastForwarding() ? fastForwardSimulation() : updateSimulation();
                     if (simComplete)
                     {
                         List<SavedStep> copy = new ArrayList<SavedStep>();
@@ -386,7 +745,6 @@ public class SimulationRunner {
 		else
 		{
 		    forceSimulationToUpdateToStep(simulationHistoryIterator.next());
-		    sc.repaint();
 		}
             }
         }
@@ -530,11 +888,17 @@ public class SimulationRunner {
 
     private void forceSimulationToUpdateToStep(SavedStep ss)
     {
-	synchronized(parameters.getEnvironment().getAgents())
+	synchronized(parameters.getEnvironment())
 	{
 	    parameters.getEnvironment().removeAllAgents();
-	    frame.setText(ss.getStepNumber() + "");
-	    rewindSlider.setValue(ss.getStepNumber(), false);
+	    final int step = ss.getStepNumber();
+	    onEventThread(new Runnable() {
+		public void run() {
+		    frame.setText(step + "");
+		    rewindSlider.setValue(step, false);
+		    graphWindow.getGraphCanvas().setPointer(step);
+		}
+	    });
 	    List<Agent> clonedAgents = new ArrayList<Agent>();
 	    for (Agent a : ss.getAgents())
 	    {
@@ -552,7 +916,7 @@ public class SimulationRunner {
             ZombieParameters zp = (ZombieParameters) parameters;
             zp.setAwarenessRaised(ss.isAwarenessRaised());
 
-	    graphWindow.getGraphCanvas().setPointer(ss.getStepNumber());
+	    publish();
 	}
     }
     
@@ -689,6 +1053,7 @@ public class SimulationRunner {
 		    tempEnvironment.setCellsWide(parameters.getCellsWide());
 		    tempEnvironment.setCellWidth(parameters.getCellWidth());
 		    tempEnvironment.setCellHeight(parameters.getCellHeight());
+		    tempEnvironment.setAgentFactory(parameters.getEnvironment().getAgentFactory());
 
                     Parameters p = new ZombieParameters();
                     p.setEnvironment(tempEnvironment);
@@ -723,6 +1088,7 @@ public class SimulationRunner {
 			parameters.setCurrentLunarPhase(lunarPhase);
 			zp.setAwarenessRaised(ss.isAwarenessRaised());
 
+			tempCanvas.publish();
 			tempCanvas.paint(g);
 			images.add(i);
 			delayTimes.add("5");
@@ -764,6 +1130,8 @@ public class SimulationRunner {
 	forwardButton.setText("");
 	toolbar.add(forwardButton);
 	toolbar.add(pauseButton);
+	fastForwardButton.setToolTipText("Run a number of steps without updating the window");
+	toolbar.add(fastForwardButton);
 
 	toolbar.add(new Separator());
 
@@ -814,6 +1182,19 @@ public class SimulationRunner {
 	simWindow.setMaximizable(false);
 	simWindow.setIconifiable(true);
 	simWindow.setVisible(parameters.displayGraphics());
+	graphicsShown = simWindow.isVisible();
+	simWindow.addComponentListener(new ComponentAdapter() {
+	    @Override
+	    public void componentShown(ComponentEvent e) {
+		graphicsShown = true;
+		publishIfStale();
+	    }
+
+	    @Override
+	    public void componentHidden(ComponentEvent e) {
+		graphicsShown = false;
+	    }
+	});
 
 	simWindow.setFrameIcon(Icons.getImageIcon(Icons.graphicsIconLocation));
 
@@ -821,6 +1202,11 @@ public class SimulationRunner {
 	toggleGraphics.setIcon(Icons.getImageIcon(Icons.graphicsIconLocation));
 	toggleGraphics.setText("");
 
+	toolbar.add(new Separator());
+	throughput.setText("0.0 steps/s");
+	throughput.setToolTipText("Steps per second over about the last second");
+	toolbar.add(throughput);
+
 	pauseButton.addActionListener(new ActionListener(){
 	    public void actionPerformed(ActionEvent e) {
 		togglePause();
@@ -830,52 +1216,84 @@ public class SimulationRunner {
 	rewindButton.addActionListener(new ActionListener() {
 
 	    public void actionPerformed(ActionEvent e) {
-		if (simulationHistoryIterator.hasPrevious())
-		{
-//		    locateStepNumber(0);
-//		    forceSimulationToUpdateToStep(simulationHistoryIterator.next());
-		    SavedStep ss = simulationHistoryIterator.previous();
-    		    forceSimulationToUpdateToStep(ss);
-		    graphWindow.getGraphCanvas().setPointer(ss.getStepNumber());
-		    graphWindow.getGraphCanvas().setDisplayPointer(true);
-		    sc.repaint();
-		    graphWindow.repaint();
-		}
+		changeHistory(new Runnable() {
+		    public void run() {
+			if (simulationHistoryIterator.hasPrevious())
+			{
+//			    locateStepNumber(0);
+//			    forceSimulationToUpdateToStep(simulationHistoryIterator.next());
+			    SavedStep ss = simulationHistoryIterator.previous();
+			    forceSimulationToUpdateToStep(ss);
+			    graphWindow.getGraphCanvas().setPointer(ss.getStepNumber());
+			    graphWindow.getGraphCanvas().setDisplayPointer(true);
+			    graphWindow.repaint();
+			}
+		    }
+		});
 	    }	
 	});
 	rewindButton.setEnabled(false);
-	
-	forwardButton.addActionListener(new ActionListener() {
+
+	fastForwardButton.addActionListener(new ActionListener() {
 
 	    public void actionPerformed(ActionEvent e) {
-		if (!simulationHistoryIterator.hasNext())
+		if (isFastForwarding())
 		{
-		    updateSimulation();
+		    cancelFastForward();
+		    return;
 		}
-		else
-    		{
-		    SavedStep ss = simulationHistoryIterator.next();
-//		    System.out.println("Forward to: " + ss.getStepNumber());
-		    forceSimulationToUpdateToStep(ss);
-		    graphWindow.getGraphCanvas().setPointer(ss.getStepNumber());
-		    graphWindow.getGraphCanvas().setDisplayPointer(true);
-		    sc.repaint();
-		    graphWindow.getGraphCanvas().repaint();
+		String steps = JOptionPane.showInputDialog(outerFrame, "Number of steps to fast forward (leave blank to run until the simulation ends):", "1000");
+		if (steps != null)
+		{
+		    try
+		    {
+			fastForward(steps.trim().length() == 0 ? 0 : Integer.parseInt(steps.trim()));
+		    }
+		    catch (NumberFormatException ex)
+		    {
+			SimZombie.setStatusText("\"" + steps + "\" is not a number of steps");
+		    }
 		}
 	    }
 	});
+	
+	forwardButton.addActionListener(new ActionListener() {
+
+	    public void actionPerformed(ActionEvent e) {
+		changeHistory(new Runnable() {
+		    public void run() {
+			if (!simulationHistoryIterator.hasNext())
+			{
+			    updateSimulation();
+			}
+			else
+			{
+			    SavedStep ss = simulationHistoryIterator.next();
+//			    System.out.println("Forward to: " + ss.getStepNumber());
+			    forceSimulationToUpdateToStep(ss);
+			    graphWindow.getGraphCanvas().setPointer(ss.getStepNumber());
+			    graphWindow.getGraphCanvas().setDisplayPointer(true);
+			    graphWindow.getGraphCanvas().repaint();
+			}
+		    }
+		});
+	    }
+	});
 	forwardButton.setEnabled(false);
 
 	rewindSlider.addPropertyChangeListener("value", new PropertyChangeListener() {
 	    public void propertyChange(PropertyChangeEvent evt) {
-		Integer i = (Integer) evt.getNewValue();
-		locateStepNumber(i);
-		forceSimulationToUpdateToStep(simulationHistoryIterator.next());
-		frame.setText(i + "");
-		graphWindow.getGraphCanvas().setPointer(i);
-		graphWindow.getGraphCanvas().setDisplayPointer(true);
-		sc.repaint();
-		graphWindow.repaint();
+		final Integer i = (Integer) evt.getNewValue();
+		changeHistory(new Runnable() {
+		    public void run() {
+			locateStepNumber(i);
+			forceSimulationToUpdateToStep(simulationHistoryIterator.next());
+			frame.setText(i + "");
+			graphWindow.getGraphCanvas().setPointer(i);
+			graphWindow.getGraphCanvas().setDisplayPointer(true);
+			graphWindow.repaint();
+		    }
+		});
 	    }
 	});
 	rewindSlider.setEnabled(false);
@@ -930,14 +1348,17 @@ public class SimulationRunner {
 	    @Override
 	    public void mouseReleased(MouseEvent e) {
 		super.mouseReleased(e);
-		if (paused)
+		if (paused && !isFastForwarding())
 		{
 		    int row = tabularData.getSelectedRow();
 		    int column = tableModel.findColumn("Step");
-		    Integer step = ((Integer)tableModel.getValueAt(row, column));
-		    locateStepNumber(step);
-		    forceSimulationToUpdateToStep(simulationHistoryIterator.next());
-		    sc.repaint();
+		    final Integer step = ((Integer)tableModel.getValueAt(row, column));
+		    changeHistory(new Runnable() {
+			public void run() {
+			    locateStepNumber(step);
+			    forceSimulationToUpdateToStep(simulationHistoryIterator.next());
+			}
+		    });
 		}
 		else
 		{
@@ -1071,14 +1492,7 @@ public class SimulationRunner {
 
 	if (!loading)
 	{
-	    ArrayList<Agent> history = new ArrayList<Agent>();
-	    synchronized(parameters.getEnvironment().getAgents())
-	    {
-		for (Agent a : parameters.getEnvironment().getAgents())
-		{
-		    history.add(a.createCopy());
-		}
-	    }
+	    ArrayList<Agent> history = new ArrayList<Agent>(parameters.getEnvironment().getAgents());
 
             ZombieParameters zp = (ZombieParameters) parameters;
 	    SavedStep ss = new SavedStep(updates, history, zp.isAwarenessRaised());
@@ -1089,9 +1503,10 @@ public class SimulationRunner {
 	    updateTable(agentCount);
 	}
 	
-	simulation.updateNumericalAnalysis(eulerGraphWindow.getGraph());
+	updateNumericalAnalysis();
 	updates++;
 	frame.setText(0 + "");
+	publish();
 
 	startTime = System.currentTimeMillis();
     }
@@ -0,0 +1,150 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.benchmarks;
+
+import simzombie.engine.environment.AgentStore;
+import simzombie.engine.environment.Cell;
+import simzombie.engine.environment.Environment;
+import simzombie.engine.simulations.zombies.ZombieParameters;
+import simzombie.engine.simulations.zombies.ZombieSimulation;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that moving agents allocates nothing on the heap, so that long runs of large
+ * populations do not churn the garbage collector.
+ *
+ * A population is set up in an environment with walls scattered through it, so both the
+ * open moves and the moves through {@link Environment}'s wall checks are made, and every
+ * agent is moved and relinked to its new cell for a number of steps.  The bytes the thread
+ * allocates over the measured steps are read from the JVM, and the check exits with status
+ * 1 if there were any.  This needs a JVM which counts allocation per thread, as HotSpot does.
+ *
+ * Usage:
+ * <pre>
+ * java simzombie.engine.benchmarks.MoveAllocationCheck [population] [cells]
+ * </pre>
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class MoveAllocationCheck {
+
+    /**
+     * Steps run before measuring, so that the moves are compiled
+     */
+    private static final int WARMUP_STEPS = 200;
+
+    /**
+     * Steps measured
+     */
+    private static final int MEASURED_STEPS = 50;
+
+    /**
+     * Runs the check
+     * @param args Population and cells along each side, otherwise 100000 agents on 100x100 cells
+     */
+    public static void main(String[] args)
+    {
+	int population = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	int cells = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+	java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (!(bean instanceof com.sun.management.ThreadMXBean)
+		|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+	{
+	    System.err.println("This JVM does not count the memory allocated by each thread");
+	    System.exit(2);
+	}
+	com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+	threads.setThreadAllocatedMemoryEnabled(true);
+	long thread = Thread.currentThread().getId();
+
+	Environment environment = createEnvironment(population, cells);
+	for (int i = 0; i < WARMUP_STEPS; i++)
+	{
+	    moveAll(environment);
+	}
+
+	// reading the count may itself allocate, so take that off what the moves allocate
+	long before = threads.getThreadAllocatedBytes(thread);
+	long overhead = threads.getThreadAllocatedBytes(thread) - before;
+	before = threads.getThreadAllocatedBytes(thread);
+	for (int i = 0; i < MEASURED_STEPS; i++)
+	{
+	    moveAll(environment);
+	}
+	long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+	System.out.println(MEASURED_STEPS + " steps of " + population + " agents allocated " + Math.max(allocated, 0) + " bytes");
+	if (allocated > 0)
+	{
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Sets up a population in an environment with a wall along roughly one in six cell edges
+     */
+    private static Environment createEnvironment(int population, int cells)
+    {
+	ZombieParameters parameters = new ZombieParameters();
+	parameters.setPopulation(population);
+	parameters.setCellsWide(cells);
+	parameters.setCellsHigh(cells);
+	parameters.setThreads(1);
+	parameters.setSeed(1);
+	Environment environment = parameters.getEnvironment();
+	Random random = new Random(1);
+	for (int i = 0; i < cells; i++)
+	{
+	    for (int j = 0; j < cells; j++)
+	    {
+		Cell cell = environment.getCell(i, j);
+		cell.setNorthWall(random.nextInt(6) == 0);
+		cell.setWestWall(random.nextInt(6) == 0);
+	    }
+	}
+	new ZombieSimulation(parameters).configureEnvironment(environment);
+	return environment;
+    }
+
+    /**
+     * Moves every agent along its trajectory and into its new cell, as a step of the
+     * simulation does
+     */
+    private static void moveAll(Environment environment)
+    {
+	AgentStore agents = environment.getAgentStore();
+	for (int slot = 0; slot < agents.size(); slot++)
+	{
+	    int from = agents.getCell(slot);
+	    int to = environment.advanceAgent(slot);
+	    if (to != from)
+	    {
+		environment.unlinkAgentFromCell(slot);
+		environment.linkAgentToCell(slot, to);
+	    }
+	}
+    }
+}
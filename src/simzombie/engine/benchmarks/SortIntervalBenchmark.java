@@ -0,0 +1,122 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.benchmarks;
+
+import simzombie.engine.environment.Environment;
+import simzombie.engine.simulations.zombies.ZombieParameters;
+import simzombie.engine.simulations.zombies.ZombieSimulation;
+
+/**
+ * Times a large population with and without the agents being sorted by cell, to show
+ * what the sort interval is worth on a given machine.
+ *
+ * Each sort interval is run from the same seed for the same number of steps, in turn, for
+ * a number of rounds; only the last round is reported, so that the earlier rounds warm up
+ * the JVM.  Without sorting, the agents in a cell drift apart in memory as they move about,
+ * so the later steps of a run show the difference best; the time per step is given for the
+ * whole run and for its second half.
+ *
+ * Usage:
+ * <pre>
+ * java simzombie.engine.benchmarks.SortIntervalBenchmark [population] [cells] [steps] [rounds] [interval...]
+ * </pre>
+ * The defaults are 1000000 agents on 300x300 cells for 200 steps, in 2 rounds, comparing
+ * sort intervals of 0 (never sort) and 32.  Everything runs on one thread.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class SortIntervalBenchmark {
+
+    /**
+     * Runs the benchmark
+     * @param args Described in the class documentation
+     */
+    public static void main(String[] args)
+    {
+	int population = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	int cells = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+	int steps = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+	int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+	int[] intervals = { 0, 32 };
+	if (args.length > 4)
+	{
+	    intervals = new int[args.length - 4];
+	    for (int i = 0; i < intervals.length; i++)
+	    {
+		intervals[i] = Integer.parseInt(args[i + 4]);
+	    }
+	}
+
+	for (int round = 1; round <= rounds; round++)
+	{
+	    for (int i = 0; i < intervals.length; i++)
+	    {
+		String result = run(population, cells, steps, intervals[i]);
+		if (round == rounds)
+		{
+		    System.out.println(result);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Runs one simulation
+     * @return A line describing the run and its timings
+     */
+    private static String run(int population, int cells, int steps, int sortInterval)
+    {
+	ZombieParameters parameters = new ZombieParameters();
+	parameters.setPopulation(population);
+	parameters.setCellsWide(cells);
+	parameters.setCellsHigh(cells);
+	parameters.setInitialZombified(Math.max(1, population / 1000));
+	parameters.setThreads(1);
+	parameters.setSeed(1);
+	parameters.setSortInterval(sortInterval);
+	ZombieSimulation simulation = new ZombieSimulation(parameters);
+	Environment environment = parameters.getEnvironment();
+	simulation.configureEnvironment(environment);
+
+	long start = System.nanoTime();
+	long half = start;
+	int halfStep = 0;
+	int step = 0;
+	boolean complete = false;
+	while (step < steps && !complete)
+	{
+	    if (step == steps / 2)
+	    {
+		half = System.nanoTime();
+		halfStep = step;
+	    }
+	    complete = simulation.updateEnvironment(environment);
+	    step++;
+	}
+	long end = System.nanoTime();
+
+	return String.format("sort interval %d: %d steps of %d agents, %.1f ms/step, %.1f ms/step in the second half",
+		sortInterval, step, population, (end - start) / 1e6 / step, (end - half) / 1e6 / (step - halfStep));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.environment;
+
+import simzombie.engine.Agent;
+import java.io.Serializable;
+
+/**
+ * Creates Agent objects from the state held in an {@link AgentStore}.
+ *
+ * The environment keeps agents as primitives, and only creates Agent objects when
+ * something (such as drawing or saving history) asks for them.  Each simulation
+ * supplies a factory which knows its own agent classes.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public interface AgentFactory extends Serializable {
+
+    /**
+     * Creates an agent holding a copy of the state in a slot.
+     *
+     * The agent is detached: changing it has no effect on the store.
+     * @param store Store holding the agent
+     * @param slot Slot of the agent within the store
+     * @return A new Agent of the matching class
+     */
+    public Agent createAgent(AgentStore store, int slot);
+}
@@ -0,0 +1,541 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.environment;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Holds the state of every agent in an environment as parallel arrays of primitives.
+ *
+ * Each agent occupies a slot, from 0 to {@link #size()} - 1, and its state is read
+ * and written through the slot.  Slots are not stable: removing an agent moves the
+ * agent in the last slot into the gap, so slots should not be held across removals.
+ * The id of an agent never changes and should be used to identify agents over time.
+ *
+ * Anything tied to the position of an agent (its location and cell) is only changed
+ * through the {@link Environment}, which keeps its cells in step.
+ *
+ * The arrays live on the heap; {@link OffHeapAgentStore} keeps the same state outside it.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class AgentStore implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Flag set on agents which never move, regardless of their direction
+     */
+    public static final int IMMOBILE = 1;
+
+    /**
+     * Flag set on agents kept apart from the active agents of their cell.  It is only
+     * changed through {@link Environment#setAgentDormant(int, boolean)}
+     */
+    public static final int DORMANT = 2;
+
+    /**
+     * Value used by the cell links when there is no next or previous agent
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Number of slots currently in use, shared with {@link OffHeapAgentStore}
+     */
+    int size = 0;
+
+    private int[] ids;
+    private int[] xs;
+    private int[] ys;
+    private int[] dxs;
+    private int[] dys;
+    /**
+     * The {@link simzombie.engine.AgentType#getUniqueIdentifier() unique identifier} of each agent's type
+     */
+    private int[] types;
+    private int[] latencies;
+    private int[] ages;
+    private int[] flags;
+    /**
+     * Index of the cell each agent is in, see {@link Environment#getCellIndex(int, int)}
+     */
+    private int[] cells;
+    /**
+     * Slot of the next agent in the same cell, or {@link #NONE}
+     */
+    private int[] nexts;
+    /**
+     * Slot of the previous agent in the same cell, or {@link #NONE}
+     */
+    private int[] prevs;
+    /**
+     * Position of each agent within the list of agents of its type kept by the {@link Environment}
+     */
+    private int[] typePositions;
+    /**
+     * Spare column, as long as the others, used by {@link #reorder(int[])}
+     */
+    private int[] spare;
+
+    /**
+     * Constructs an empty store with room for a few agents
+     */
+    public AgentStore()
+    {
+	this(16);
+    }
+
+    /**
+     * Constructs an empty store
+     * @param capacity Number of agents to make room for before the arrays need to grow
+     */
+    public AgentStore(int capacity)
+    {
+	capacity = Math.max(capacity, 1);
+	ids = new int[capacity];
+	xs = new int[capacity];
+	ys = new int[capacity];
+	dxs = new int[capacity];
+	dys = new int[capacity];
+	types = new int[capacity];
+	latencies = new int[capacity];
+	ages = new int[capacity];
+	flags = new int[capacity];
+	cells = new int[capacity];
+	nexts = new int[capacity];
+	prevs = new int[capacity];
+	typePositions = new int[capacity];
+    }
+
+    /**
+     * Number of agents in the store
+     * @return Number of agents, which is also one more than the highest slot in use
+     */
+    public int size()
+    {
+	return size;
+    }
+
+    /**
+     * Makes sure the arrays can hold a number of agents without growing
+     * @param capacity Number of agents the store should be able to hold
+     */
+    public void ensureCapacity(int capacity)
+    {
+	if (capacity > ids.length)
+	{
+	    capacity = Math.max(capacity, ids.length * 2);
+	    ids = Arrays.copyOf(ids, capacity);
+	    xs = Arrays.copyOf(xs, capacity);
+	    ys = Arrays.copyOf(ys, capacity);
+	    dxs = Arrays.copyOf(dxs, capacity);
+	    dys = Arrays.copyOf(dys, capacity);
+	    types = Arrays.copyOf(types, capacity);
+	    latencies = Arrays.copyOf(latencies, capacity);
+	    ages = Arrays.copyOf(ages, capacity);
+	    flags = Arrays.copyOf(flags, capacity);
+	    cells = Arrays.copyOf(cells, capacity);
+	    nexts = Arrays.copyOf(nexts, capacity);
+	    prevs = Arrays.copyOf(prevs, capacity);
+	    typePositions = Arrays.copyOf(typePositions, capacity);
+	}
+    }
+
+    /**
+     * Appends an agent to the store.  The agent is not linked into its cell.
+     * @return Slot of the new agent
+     */
+    int add(int id, int type, int x, int y, int dx, int dy, int age, int latency, int flag, int cell)
+    {
+	ensureCapacity(size + 1);
+	int slot = size++;
+	ids[slot] = id;
+	types[slot] = type;
+	xs[slot] = x;
+	ys[slot] = y;
+	dxs[slot] = dx;
+	dys[slot] = dy;
+	ages[slot] = age;
+	latencies[slot] = latency;
+	flags[slot] = flag;
+	cells[slot] = cell;
+	nexts[slot] = NONE;
+	prevs[slot] = NONE;
+	return slot;
+    }
+
+    /**
+     * Removes the agent in a slot by moving the agent in the last slot into it.
+     *
+     * The moved agent keeps its cell links and type position, and anything pointing
+     * at its old slot is left for the caller to repair.
+     * @param slot Slot to remove
+     * @return The slot the moved agent used to occupy, or {@link #NONE} if the removed agent was last
+     */
+    int remove(int slot)
+    {
+	int last = --size;
+	if (slot == last)
+	{
+	    return NONE;
+	}
+	ids[slot] = ids[last];
+	types[slot] = types[last];
+	xs[slot] = xs[last];
+	ys[slot] = ys[last];
+	dxs[slot] = dxs[last];
+	dys[slot] = dys[last];
+	ages[slot] = ages[last];
+	latencies[slot] = latencies[last];
+	flags[slot] = flags[last];
+	cells[slot] = cells[last];
+	nexts[slot] = nexts[last];
+	prevs[slot] = prevs[last];
+	typePositions[slot] = typePositions[last];
+	return last;
+    }
+
+    /**
+     * Rearranges the agents so that each new slot holds the agent from an old slot.
+     *
+     * The cell links are left as they were, and are for the caller to rebuild.
+     * @param order The old slot of the agent to place in each new slot, holding every slot once
+     */
+    void reorder(int[] order)
+    {
+	ids = gather(ids, order);
+	types = gather(types, order);
+	xs = gather(xs, order);
+	ys = gather(ys, order);
+	dxs = gather(dxs, order);
+	dys = gather(dys, order);
+	ages = gather(ages, order);
+	latencies = gather(latencies, order);
+	flags = gather(flags, order);
+	cells = gather(cells, order);
+	typePositions = gather(typePositions, order);
+    }
+
+    /**
+     * Copies a column into the spare in a new order, and keeps the old column as the next spare
+     * @param column Column to reorder
+     * @param order See {@link #reorder(int[])}
+     * @return The reordered column
+     */
+    private int[] gather(int[] column, int[] order)
+    {
+	if (spare == null || spare.length != column.length)
+	{
+	    spare = new int[column.length];
+	}
+	int[] gathered = spare;
+	for (int slot = 0; slot < size; slot++)
+	{
+	    gathered[slot] = column[order[slot]];
+	}
+	spare = column;
+	return gathered;
+    }
+
+    /**
+     * The columns of locations and directions, for a {@link MovementKernel} to work on
+     * directly.  They are replaced when the store grows or is reordered, so they should be
+     * asked for again each time.
+     * @return The x, y, dx and dy columns, or null if the state is not kept in arrays
+     */
+    int[][] movementColumns()
+    {
+	return new int[][] { xs, ys, dxs, dys };
+    }
+
+    /**
+     * Empties the store, keeping the arrays for reuse
+     */
+    void clear()
+    {
+	size = 0;
+    }
+
+    /**
+     * Finds the slot of an agent by its id.  This searches every slot.
+     * @param id Id of the agent
+     * @return Slot of the agent, or {@link #NONE} if no agent has the id
+     */
+    public int findSlot(int id)
+    {
+	for (int slot = 0; slot < size; slot++)
+	{
+	    if (getId(slot) == id)
+	    {
+		return slot;
+	    }
+	}
+	return NONE;
+    }
+
+    /**
+     * Get the unique id of the agent in a slot
+     * @param slot Slot of the agent
+     * @return The id the agent was added with
+     */
+    public int getId(int slot)
+    {
+	return ids[slot];
+    }
+
+    /**
+     * Get the type of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Unique identifier of the agent's AgentType
+     */
+    public int getType(int slot)
+    {
+	return types[slot];
+    }
+
+    /**
+     * Changes the type of the agent in a slot, without updating the counts kept by {@link Environment}
+     * @param slot Slot of the agent
+     * @param type Unique identifier of the new AgentType
+     */
+    void setType(int slot, int type)
+    {
+	types[slot] = type;
+    }
+
+    /**
+     * Get the horizontal location of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Location in pixels
+     */
+    public int getX(int slot)
+    {
+	return xs[slot];
+    }
+
+    /**
+     * Moves the agent in a slot horizontally, without changing its cell
+     * @param slot Slot of the agent
+     * @param x Location in pixels
+     */
+    void setX(int slot, int x)
+    {
+	xs[slot] = x;
+    }
+
+    /**
+     * Get the vertical location of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Location in pixels
+     */
+    public int getY(int slot)
+    {
+	return ys[slot];
+    }
+
+    /**
+     * Moves the agent in a slot vertically, without changing its cell
+     * @param slot Slot of the agent
+     * @param y Location in pixels
+     */
+    void setY(int slot, int y)
+    {
+	ys[slot] = y;
+    }
+
+    /**
+     * Get the horizontal direction of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Pixels moved along x each step
+     */
+    public int getDx(int slot)
+    {
+	return dxs[slot];
+    }
+
+    /**
+     * Sets the horizontal direction of the agent in a slot
+     * @param slot Slot of the agent
+     * @param dx Pixels to move along x each step
+     */
+    public void setDx(int slot, int dx)
+    {
+	dxs[slot] = dx;
+    }
+
+    /**
+     * Get the vertical direction of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Pixels moved along y each step
+     */
+    public int getDy(int slot)
+    {
+	return dys[slot];
+    }
+
+    /**
+     * Sets the vertical direction of the agent in a slot
+     * @param slot Slot of the agent
+     * @param dy Pixels to move along y each step
+     */
+    public void setDy(int slot, int dy)
+    {
+	dys[slot] = dy;
+    }
+
+    /**
+     * Get the age of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Age in steps
+     */
+    public int getAge(int slot)
+    {
+	return ages[slot];
+    }
+
+    /**
+     * Sets the age of the agent in a slot
+     * @param slot Slot of the agent
+     * @param age Age in steps
+     */
+    public void setAge(int slot, int age)
+    {
+	ages[slot] = age;
+    }
+
+    /**
+     * Get the latency period of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Steps an Infected agent takes to turn, or 0
+     */
+    public int getLatency(int slot)
+    {
+	return latencies[slot];
+    }
+
+    /**
+     * Sets the latency period of the agent in a slot
+     * @param slot Slot of the agent
+     * @param latency Steps an Infected agent takes to turn, or 0
+     */
+    public void setLatency(int slot, int latency)
+    {
+	latencies[slot] = latency;
+    }
+
+    /**
+     * Get every flag of the agent in a slot
+     * @param slot Slot of the agent
+     * @return Flags such as {@link #IMMOBILE} and {@link #DORMANT}, or'd together
+     */
+    public int getFlags(int slot)
+    {
+	return flags[slot];
+    }
+
+    /**
+     * Replaces every flag of the agent in a slot.  {@link #DORMANT} must stay in step
+     * with the cell lists, so outside this package flags are set through
+     * {@link #setImmobile(int, boolean)} and {@link Environment#setAgentDormant(int, boolean)}
+     * @param slot Slot of the agent
+     * @param flag Flags to set
+     */
+    void setFlags(int slot, int flag)
+    {
+	flags[slot] = flag;
+    }
+
+    /**
+     * Sets or clears {@link #IMMOBILE} on the agent in a slot, leaving its other flags alone
+     * @param slot Slot of the agent
+     * @param immobile True if the agent never moves
+     */
+    public void setImmobile(int slot, boolean immobile)
+    {
+	int flag = getFlags(slot);
+	setFlags(slot, immobile ? flag | IMMOBILE : flag & ~IMMOBILE);
+    }
+
+    /**
+     * Whether the agent in a slot has a flag set
+     * @param slot Slot of the agent
+     * @param flag Flag to test for, such as {@link #IMMOBILE}
+     * @return True if the flag is set
+     */
+    public boolean hasFlag(int slot, int flag)
+    {
+	return (flags[slot] & flag) != 0;
+    }
+
+    /**
+     * Get the cell the agent in a slot is linked into
+     * @param slot Slot of the agent
+     * @return Index of the cell, see {@link Environment#getCellIndex(int, int)}
+     */
+    public int getCell(int slot)
+    {
+	return cells[slot];
+    }
+
+    /**
+     * Records the cell the agent in a slot is linked into
+     * @param slot Slot of the agent
+     * @param cell Index of the cell
+     */
+    void setCell(int slot, int cell)
+    {
+	cells[slot] = cell;
+    }
+
+    int getNext(int slot)
+    {
+	return nexts[slot];
+    }
+
+    void setNext(int slot, int next)
+    {
+	nexts[slot] = next;
+    }
+
+    int getPrev(int slot)
+    {
+	return prevs[slot];
+    }
+
+    void setPrev(int slot, int prev)
+    {
+	prevs[slot] = prev;
+    }
+
+    int getTypePosition(int slot)
+    {
+	return typePositions[slot];
+    }
+
+    void setTypePosition(int slot, int position)
+    {
+	typePositions[slot] = position;
+    }
+}
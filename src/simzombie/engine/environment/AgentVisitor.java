@@ -0,0 +1,43 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.environment;
+
+/**
+ * Receives the agents found by a query on the {@link Environment}, such as
+ * {@link Environment#forEachAgentWithin(int, int, int, simzombie.engine.AgentType, AgentVisitor)}
+ *
+ * Visitors are called while the query walks the cells, so they must not add,
+ * remove or move agents.  A visitor can be kept and reused for every query.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public interface AgentVisitor {
+
+    /**
+     * Visits a single agent
+     * @param slot Slot of the agent in the {@link AgentStore}
+     * @return True to carry on visiting agents, false to end the query
+     */
+    public boolean visit(int slot);
+}
@@ -22,13 +22,17 @@
 
 package simzombie.engine.environment;
 
-import simzombie.engine.utils.Location;
 import simzombie.engine.Agent;
 import simzombie.engine.AgentType;
+import simzombie.engine.utils.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -48,486 +52,1558 @@ import java.util.Set;
 public class Environment implements Serializable {
 
     /**
-     * A set containing all the agents, regardless of which cell they are in
+     * The version of the original Environment, whose serialized form is kept so that
+     * parameters and simulations saved by earlier versions can still be loaded
      */
-    private final Set<Agent> agents = Collections.synchronizedSet(new HashSet<Agent>());
+    private static final long serialVersionUID = -6919240701109562661L;
+
+    /**
+     * The serialized form: the fields of the original Environment, which held its agents
+     * and cells in collections, plus the agent factory and storage choice.  Everything
+     * else is rebuilt from these when read, see {@link #readObject(ObjectInputStream)}.
+     * Files from earlier versions have no factory and use heap storage.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+	new ObjectStreamField("agents", Set.class),
+	new ObjectStreamField("cells", Map.class),
+	new ObjectStreamField("cellWidth", Integer.TYPE),
+	new ObjectStreamField("cellHeight", Integer.TYPE),
+	new ObjectStreamField("cellsWide", Integer.TYPE),
+	new ObjectStreamField("cellsHigh", Integer.TYPE),
+	new ObjectStreamField("agentFactory", AgentFactory.class),
+	new ObjectStreamField("offHeap", Boolean.TYPE)
+    };
+
+    /**
+     * The state of every agent, regardless of which cell they are in
+     */
+    private AgentStore agents = new AgentStore();
+    /**
+     * Creates Agent objects from {@link #agents} when they are asked for
+     */
+    private AgentFactory agentFactory;
+    /**
+     * All the cells in the environment, stored row-major and indexed by {@link #getCellIndex(int, int)}
+     */
+    private Cell[] cells;
+    /**
+     * One shared CellReference per cell, so agents changing cell do not need a new one
+     */
+    private CellReference[] cellReferences;
+    /**
+     * The slot of the first agent present in each cell, indexed the same way as {@link #cells}.
+     *
+     * The rest of the agents in the cell are linked from the first through the store,
+     * see {@link #getNextAgentInCell(int)}.  Empty cells hold {@link AgentStore#NONE}.
+     */
+    private int[] cellHeads;
+    /**
+     * The slot of the first dormant agent present in each cell.  Dormant agents are linked
+     * separately from the rest, so that loops over the active agents of a cell never visit
+     * them, see {@link #setAgentDormant(int, boolean)}.
+     */
+    private int[] dormantHeads;
+    /**
+     * How many agents, active or dormant, are present in each cell
+     */
+    private int[] cellAgentCounts;
+    /**
+     * How many agents there are of each type, indexed by {@link AgentType#getUniqueIdentifier()}
+     */
+    private int[] typeCounts = new int[0];
+    /**
+     * The slots of the agents of each type, indexed the same way as {@link #typeCounts}.
+     *
+     * Each list is only filled up to the matching entry of {@link #typeCounts}, and grows
+     * as needed.  The position of an agent within its list is kept in the agent store.
+     */
+    private int[][] typeMembers = new int[0][];
+    /**
+     * How many agents of each type are present in each cell, indexed by type the same way
+     * as {@link #typeCounts} and then by cell.  Lets a query for one type skip the cells
+     * with none of that type, see {@link #getAgentCountInCell(int, AgentType)}.
+     */
+    private int[][] cellTypeCounts = new int[0][];
+    /**
+     * Slots of the agents with a transition waiting for {@link #commitTransitions(TransitionListener)}
+     */
+    private IntList pendingSlots = new IntList();
+    /**
+     * The type each of {@link #pendingSlots} will change to
+     */
+    private IntList pendingTypes = new IntList();
+    /**
+     * Reused by {@link #sortAgentsByCell()}: the old slot of the agent placed in each new slot
+     */
+    private int[] sortOrder = new int[0];
+    /**
+     * Reused by {@link #sortAgentsByCell()}: the new slot of the agent from each old slot
+     */
+    private int[] sortMoves = new int[0];
+
+    /**
+     * Bit set in {@link #walls} when a cell has a wall along its northern edge
+     */
+    private static final byte NORTH_WALL = 1;
+    /**
+     * Bit set in {@link #walls} when a cell has a wall along its western edge
+     */
+    private static final byte WEST_WALL = 2;
+    /**
+     * Bit set in {@link #walls} when none of the walls a move out of a cell could run into
+     * are present, so moving from it into any neighbouring cell is plain arithmetic,
+     * see {@link #advanceAgent(int)}
+     */
+    private static final byte OPEN = 4;
+    /**
+     * The walls of every cell compiled from {@link #cells}, one byte per cell.
+     *
+     * The grid is one cell larger than the environment on every side, and that border
+     * is solid, so the edges of the environment behave as walls without any bounds checks.
+     * Compiled by {@link #compileWalls()}.
+     */
+    private byte[] walls;
+    /**
+     * Row length of {@link #walls}, which is {@link #cellsWide} plus the border on either side
+     */
+    private int wallStride;
+
+    /**
+     * The width of each cell, in pixels
+     */
+    private int cellWidth = 25;
+    /**
+     * The height of each cell, in pixels
+     */
+    private int cellHeight = 25;
+    /**
+     * How many cells wide the environment is
+     */
+    private int cellsWide = 20;
+    /**
+     * How many cells high the environment is
+     */
+    private int cellsHigh = 20;
+
+    /**
+     * Utility constructor which creates a default Environment
+     */
+    public Environment()
+    {
+	this(null);
+    }
+
+    /**
+     * Constructs an environment with a specific set of cells
+     * @param givenCells Cells to populate the environment with.  If null, new cells are created.
+     */
+    public Environment(Map<CellReference, Cell> givenCells)
+    {
+	if (givenCells != null && !givenCells.isEmpty())
+	{
+	    int wide = 0;
+	    int high = 0;
+	    for (CellReference cr : givenCells.keySet())
+	    {
+		wide = Math.max(wide, cr.getX() + 1);
+		high = Math.max(high, cr.getY() + 1);
+	    }
+	    cellsWide = wide;
+	    cellsHigh = high;
+	}
+	createCells();
+	if (givenCells != null)
+	{
+	    for (CellReference cr : givenCells.keySet())
+	    {
+		cells[getCellIndex(cr.getX(), cr.getY())] = givenCells.get(cr);
+	    }
+	    compileWalls();
+	}
+    }
+
+    /**
+     * Writes the environment in its serialized form, see {@link #serialPersistentFields}
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException
+    {
+	ObjectOutputStream.PutField fields = out.putFields();
+	Set<Agent> agentSet = new HashSet<Agent>();
+	if (agentFactory != null)
+	{
+	    agentSet.addAll(getAgents());
+	}
+	fields.put("agents", agentSet);
+	fields.put("cells", getCellMap());
+	fields.put("cellWidth", cellWidth);
+	fields.put("cellHeight", cellHeight);
+	fields.put("cellsWide", cellsWide);
+	fields.put("cellsHigh", cellsHigh);
+	fields.put("agentFactory", agentFactory);
+	fields.put("offHeap", isOffHeap());
+	out.writeFields();
+    }
+
+    /**
+     * Reads an environment written by this or an earlier version, rebuilding the cells,
+     * walls and agent store from the collections in its serialized form
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+	ObjectInputStream.GetField fields = in.readFields();
+	cellWidth = fields.get("cellWidth", 25);
+	cellHeight = fields.get("cellHeight", 25);
+	cellsWide = fields.get("cellsWide", 20);
+	cellsHigh = fields.get("cellsHigh", 20);
+	agentFactory = (AgentFactory) fields.get("agentFactory", null);
+
+	agents = fields.get("offHeap", false) ? new OffHeapAgentStore() : new AgentStore();
+	typeCounts = new int[0];
+	typeMembers = new int[0][];
+	cellTypeCounts = new int[0][];
+	pendingSlots = new IntList();
+	pendingTypes = new IntList();
+	sortOrder = new int[0];
+	sortMoves = new int[0];
+	createCells();
+
+	Map<CellReference, Cell> givenCells = (Map<CellReference, Cell>) fields.get("cells", null);
+	if (givenCells != null)
+	{
+	    for (Map.Entry<CellReference, Cell> entry : givenCells.entrySet())
+	    {
+		CellReference cr = entry.getKey();
+		if (cr.getX() >= 0 && cr.getX() < cellsWide && cr.getY() >= 0 && cr.getY() < cellsHigh)
+		{
+		    cells[getCellIndex(cr.getX(), cr.getY())] = entry.getValue();
+		}
+	    }
+	    compileWalls();
+	}
+
+	Set<Agent> givenAgents = (Set<Agent>) fields.get("agents", null);
+	if (givenAgents != null)
+	{
+	    addAgents(givenAgents);
+	}
+    }
+
+    /**
+     * (Re)creates every cell, reference and agent bucket to match the current dimensions
+     */
+    private void createCells()
+    {
+	int cellCount = cellsWide * cellsHigh;
+	cells = new Cell[cellCount];
+	cellReferences = new CellReference[cellCount];
+	cellHeads = new int[cellCount];
+	dormantHeads = new int[cellCount];
+	cellAgentCounts = new int[cellCount];
+	Arrays.fill(cellHeads, AgentStore.NONE);
+	Arrays.fill(dormantHeads, AgentStore.NONE);
+	for (int type = 0; type < cellTypeCounts.length; type++)
+	{
+	    cellTypeCounts[type] = new int[cellCount];
+	}
+	agents.clear();
+	Arrays.fill(typeCounts, 0);
+	pendingSlots.clear();
+	pendingTypes.clear();
+	for (int j = 0; j < cellsHigh; j++)
+	{
+	    for (int i = 0; i < cellsWide; i++)
+	    {
+		int index = getCellIndex(i, j);
+		cells[index] = new Cell();
+		cellReferences[index] = new CellReference(i, j);
+	    }
+	}
+	compileWalls();
+    }
+
+    /**
+     * Gets all agents within the environment
+     *
+     * The agents are created from the agent store on request, so they are a snapshot:
+     * changing them has no effect on the environment.  Code that runs every step
+     * should use {@link #getAgentStore()} instead.
+     * @return A list of all agents in the environment
+     */
+    public synchronized List<Agent> getAgents()
+    {
+	List<Agent> returner = new ArrayList<Agent>(agents.size());
+	for (int slot = 0; slot < agents.size(); slot++)
+	{
+	    returner.add(getAgent(slot));
+	}
+	return returner;
+    }
+
+    /**
+     * Creates an Agent object from the state of the agent in a slot of the agent store
+     * @param slot Slot of the agent
+     * @return A detached copy of the agent, see {@link AgentFactory}
+     */
+    public Agent getAgent(int slot)
+    {
+	if (agentFactory == null)
+	{
+	    throw new IllegalStateException("No AgentFactory has been set for this environment");
+	}
+	return agentFactory.createAgent(agents, slot);
+    }
+
+    /**
+     * Gets the store holding the state of every agent in the environment.
+     *
+     * Slots may be iterated and their state read directly.  Locations, cells and types
+     * should only be changed through the environment, which keeps the cells up to date.
+     * When other threads may be reading the environment, hold its lock (synchronize on
+     * the environment) while changing it.
+     * @return The agent store
+     */
+    public AgentStore getAgentStore()
+    {
+	return agents;
+    }
+
+    /**
+     * Chooses whether the state of the agents is kept outside the heap, see {@link OffHeapAgentStore}.
+     *
+     * This can only be changed while there are no agents.  Anything holding the old
+     * {@link #getAgentStore() agent store} must ask for it again.
+     * @param offHeap True to keep the state outside the heap
+     * @throws IllegalStateException if there are any agents
+     */
+    public synchronized void setOffHeap(boolean offHeap)
+    {
+	if (offHeap == isOffHeap())
+	{
+	    return;
+	}
+	if (agents.size() > 0)
+	{
+	    throw new IllegalStateException("Agent storage can only be changed while there are no agents");
+	}
+	agents = offHeap ? new OffHeapAgentStore() : new AgentStore();
+    }
+
+    /**
+     * Whether the state of the agents is kept outside the heap, see {@link #setOffHeap(boolean)}
+     */
+    public boolean isOffHeap()
+    {
+	return agents instanceof OffHeapAgentStore;
+    }
+
+    /**
+     * Sets the factory used to create Agent objects from the agent store
+     * @param agentFactory Factory supplied by the simulation
+     */
+    public void setAgentFactory(AgentFactory agentFactory)
+    {
+	this.agentFactory = agentFactory;
+    }
+
+    /**
+     * Gets the factory used to create Agent objects from the agent store
+     * @return Factory supplied by the simulation, or null if none has been set
+     */
+    public AgentFactory getAgentFactory()
+    {
+	return agentFactory;
+    }
+
+    /**
+     * Gets a specific cell given a cell reference
+     * @param cr CellReference referring to the desired cell
+     * @return Cell given the CellReference.  Will return null if an invalid CellReference is given
+     */
+    public Cell getCell(CellReference cr)
+    {
+	return getCell(cr.getX(), cr.getY());
+    }
+
+    /**
+     * Gets a specific cell given its column and row
+     * @param x Column of the desired cell
+     * @param y Row of the desired cell
+     * @return Cell at the given position.  Will return null if the position is outside the environment
+     */
+    public Cell getCell(int x, int y)
+    {
+	if (x < 0 || x >= cellsWide || y < 0 || y >= cellsHigh)
+	{
+	    return null;
+	}
+	return cells[getCellIndex(x, y)];
+    }
+
+    /**
+     * Converts a column and row into the index used by the flat, row-major cell storage
+     *
+     * No bounds checking is done, see {@link #getCell(int, int)} for a checked lookup
+     * @param x Column of the cell
+     * @param y Row of the cell
+     * @return Index of the cell
+     */
+    public int getCellIndex(int x, int y)
+    {
+	return x + y * cellsWide;
+    }
+
+    /**
+     * Converts a CellReference into the index used by the flat, row-major cell storage
+     * @param cr CellReference to convert
+     * @return Index of the cell
+     */
+    public int getCellIndex(CellReference cr)
+    {
+	return getCellIndex(cr.getX(), cr.getY());
+    }
+
+    /**
+     * Takes adjacent cells and calculates which edge is being transgressed and verifies the validity of the move.
+     *
+     * Validity takes into account the boundaries of the environment and also any walls in both the from and to cells
+     * If the move is valid, the agent is moved.  If not, the agents trajectory is adjusted and then moved.
+     * Only the location is changed: the cell the agent ends up in is returned, for the caller to link it into.
+     *
+     * Walls are read from the compiled wall grid (see {@link #compileWalls()}), in which the
+     * boundaries of the environment are ordinary walls.
+     * 
+     * @param slot Slot of the agent moving
+     * @param fx Column of the cell the Agent is currently in
+     * @param fy Row of the cell the Agent is currently in
+     * @param tx Column of the cell the Agent is moving to
+     * @param ty Row of the cell the Agent is moving to
+     * @return Index of the cell the agent is in after the move
+     */
+    private int moveAgent(int slot, int fx, int fy, int tx, int ty)
+    {
+	int from = getCellIndex(fx, fy);
+	if (fx == tx && fy == ty)
+	{
+	    adjustLocationByDxDy(slot);
+	    return from;
+	}
+
+	// transgression must be vertical
+	if (fx == tx)
+	{
+	    // moving into the cell above checks our own north wall, moving below checks theirs
+	    boolean blocked = (fy > ty) ? isNorthWallPresent(fx, fy) : isNorthWallPresent(tx, ty);
+	    if (blocked)
+	    {
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+	    }
+	    else
+	    {
+		adjustLocationByDxDy(slot);
+		return getCellIndex(tx, ty);
+	    }
+	}
+	// trangression must be horizontal
+	else if (fy == ty)
+	{
+	    // moving to the west checks our own west wall, moving east checks theirs
+	    boolean blocked = (fx > tx) ? isWestWallPresent(fx, fy) : isWestWallPresent(tx, ty);
+	    if (blocked)
+	    {
+		reverseDx(slot);
+		adjustLocationByDxDy(slot);
+	    }
+	    else
+	    {
+		adjustLocationByDxDy(slot);
+		return getCellIndex(tx, ty);
+	    }
+	}
+	// this means an agent is moving diagonally into the next cell
+	// note: We need the walls of four cells to calculate these diagonals
+	else if (tx < fx && ty < fy)
+	{
+	    if (isWestWallPresent(fx, fy - 1) && isWestWallPresent(fx, fy) && !isNorthWallPresent(fx, fy))
+	    {
+		reverseDx(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx, fy - 1);
+	    }
+	    else if (isNorthWallPresent(fx, fy) && isNorthWallPresent(fx - 1, fy) && !isWestWallPresent(fx, fy))
+	    {
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx - 1, fy);
+	    }
+	    else if ((isNorthWallPresent(fx, fy) && isWestWallPresent(fx, fy))
+		    || (isWestWallPresent(fx, fy - 1) && isNorthWallPresent(fx - 1, fy)))
+	    {
+		reverseDx(slot);
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+	    }
+	    else
+	    {
+		adjustLocationByDxDy(slot);
+		return getCellIndex(tx, ty);
+	    }
+	}
+	else if (tx > fx && ty > fy)
+	{
+	    if (isNorthWallPresent(fx, fy + 1) && isNorthWallPresent(tx, ty) && !isWestWallPresent(fx + 1, fy))
+	    {
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx + 1, fy);
+	    }
+	    else if (isWestWallPresent(tx, ty) && isWestWallPresent(fx + 1, fy) && !isNorthWallPresent(fx, fy + 1))
+	    {
+		reverseDx(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx, fy + 1);
+	    }
+	    else if ((isNorthWallPresent(tx, ty) && isWestWallPresent(tx, ty))
+		    || (isNorthWallPresent(fx, fy + 1) && isWestWallPresent(fx + 1, fy)))
+	    {
+		reverseDx(slot);
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+	    }
+	    else
+	    {
+		adjustLocationByDxDy(slot);
+		return getCellIndex(tx, ty);
+	    }
+	}
+	else if (tx > fx && ty < fy)
+	{
+	    if (isNorthWallPresent(fx, fy) && isNorthWallPresent(fx + 1, fy) && !isWestWallPresent(fx + 1, fy))
+	    {
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx + 1, fy);
+	    }
+	    else if (isWestWallPresent(fx + 1, fy) && isWestWallPresent(tx, ty) && !isNorthWallPresent(fx, fy))
+	    {
+		reverseDx(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx, fy - 1);
+	    }
+	    else if ((isWestWallPresent(fx + 1, fy) && isNorthWallPresent(fx, fy))
+		    || (isWestWallPresent(tx, ty) && isNorthWallPresent(fx + 1, fy)))
+	    {
+		reverseDx(slot);
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+	    }
+	    else
+	    {
+		adjustLocationByDxDy(slot);
+		return getCellIndex(tx, ty);
+	    }
+	}
+	else
+	{
+	    if (isWestWallPresent(fx, fy) && isWestWallPresent(fx, fy + 1) && !isNorthWallPresent(fx, fy + 1))
+	    {
+		reverseDx(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx, fy + 1);
+	    }
+	    else if (isNorthWallPresent(tx, ty) && isNorthWallPresent(fx, fy + 1) && !isWestWallPresent(fx, fy))
+	    {
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+		return getCellIndex(fx - 1, fy);
+	    }
+	    else if ((isNorthWallPresent(fx, fy + 1) && isWestWallPresent(fx, fy))
+		    || (isNorthWallPresent(tx, ty) && isWestWallPresent(fx, fy + 1)))
+	    {
+		reverseDx(slot);
+		reverseDy(slot);
+		adjustLocationByDxDy(slot);
+	    }
+	    else
+	    {
+		adjustLocationByDxDy(slot);
+		return getCellIndex(tx, ty);
+	    }
+	}
+	return from;
+    }
+
+    /**
+     * Whether the given cell has a wall along its northern edge.
+     *
+     * The position may be up to one cell outside the environment in any direction,
+     * as the compiled wall grid carries a solid border of boundary walls.
+     * @param x Column of the cell
+     * @param y Row of the cell
+     * @return True if the northern edge of the cell cannot be crossed
+     */
+    private boolean isNorthWallPresent(int x, int y)
+    {
+	return (walls[(x + 1) + (y + 1) * wallStride] & NORTH_WALL) != 0;
+    }
+
+    /**
+     * Whether the given cell has a wall along its western edge.
+     *
+     * The position may be up to one cell outside the environment in any direction,
+     * as the compiled wall grid carries a solid border of boundary walls.
+     * @param x Column of the cell
+     * @param y Row of the cell
+     * @return True if the western edge of the cell cannot be crossed
+     */
+    private boolean isWestWallPresent(int x, int y)
+    {
+	return (walls[(x + 1) + (y + 1) * wallStride] & WEST_WALL) != 0;
+    }
+
+    /**
+     * Compiles the walls of every cell into the wall grid used for movement.
+     *
+     * This should be called when a simulation starts, and is called whenever the
+     * cells are recreated.  Edits to a single cell should use {@link #compileWalls(int, int)}.
+     */
+    public void compileWalls()
+    {
+	wallStride = cellsWide + 2;
+	walls = new byte[wallStride * (cellsHigh + 2)];
+	// the border surrounding the environment is solid
+	for (int i = 0; i < walls.length; i++)
+	{
+	    walls[i] = NORTH_WALL | WEST_WALL;
+	}
+	for (int j = 0; j < cellsHigh; j++)
+	{
+	    for (int i = 0; i < cellsWide; i++)
+	    {
+		compileWalls(i, j);
+	    }
+	}
+    }
+
+    /**
+     * Adds or removes the north wall of a cell, and recompiles the walls around it.
+     * Holds the environment's lock, which a simulation holds for the whole of a step, so
+     * a step never sees the wall and the cells marked {@link #OPEN} disagree
+     * @param x Column of the cell
+     * @param y Row of the cell
+     * @param present True to add the wall, false to remove it
+     */
+    public synchronized void setNorthWall(int x, int y, boolean present)
+    {
+	getCell(x, y).setNorthWall(present);
+	compileWalls(x, y);
+    }
+
+    /**
+     * Adds or removes the west wall of a cell, and recompiles the walls around it, as
+     * {@link #setNorthWall(int, int, boolean)} does
+     * @param x Column of the cell
+     * @param y Row of the cell
+     * @param present True to add the wall, false to remove it
+     */
+    public synchronized void setWestWall(int x, int y, boolean present)
+    {
+	getCell(x, y).setWestWall(present);
+	compileWalls(x, y);
+    }
+
+    /**
+     * Recompiles the walls of a single cell, after its {@link Cell} has been edited
+     * @param x Column of the cell
+     * @param y Row of the cell
+     */
+    public void compileWalls(int x, int y)
+    {
+	Cell c = cells[getCellIndex(x, y)];
+	byte wall = 0;
+	// the north and west edges of the environment are always walls
+	if (c.isNorthWallPresent() || y == 0)
+	{
+	    wall |= NORTH_WALL;
+	}
+	if (c.isWestWallPresent() || x == 0)
+	{
+	    wall |= WEST_WALL;
+	}
+	walls[(x + 1) + (y + 1) * wallStride] = wall;
+	for (int j = Math.max(0, y - 1); j <= Math.min(cellsHigh - 1, y + 1); j++)
+	{
+	    for (int i = Math.max(0, x - 1); i <= Math.min(cellsWide - 1, x + 1); i++)
+	    {
+		compileOpen(i, j);
+	    }
+	}
+    }
+
+    /**
+     * Works out whether a cell is {@link #OPEN}: whether none of the walls {@link #moveAgent(int, int, int, int, int)}
+     * consults, for a move from the cell into any of its neighbours, are present
+     * @param x Column of the cell
+     * @param y Row of the cell
+     */
+    private void compileOpen(int x, int y)
+    {
+	boolean open = !isNorthWallPresent(x, y) && !isNorthWallPresent(x, y + 1)
+		&& !isNorthWallPresent(x - 1, y) && !isNorthWallPresent(x + 1, y)
+		&& !isNorthWallPresent(x - 1, y + 1) && !isNorthWallPresent(x + 1, y + 1)
+		&& !isWestWallPresent(x, y) && !isWestWallPresent(x + 1, y)
+		&& !isWestWallPresent(x, y - 1) && !isWestWallPresent(x, y + 1)
+		&& !isWestWallPresent(x + 1, y - 1) && !isWestWallPresent(x + 1, y + 1);
+	int i = (x + 1) + (y + 1) * wallStride;
+	walls[i] = (byte)(open ? walls[i] | OPEN : walls[i] & ~OPEN);
+    }
+
+    /**
+     * Attempts to move a specific agent in the environment based on its current trajectory.
+     * @param slot Slot of the agent to move, see {@link #getAgentStore()}
+     */
+    public void attemptToMoveAgent(int slot)
+    {
+	int from = agents.getCell(slot);
+	int to = advanceAgent(slot);
+	if (to != from)
+	{
+	    moveAgentFromTo(slot, from, to);
+	}
+    }
+
+    /**
+     * Moves an agent along its current trajectory, as {@link #attemptToMoveAgent(int)},
+     * but leaves it in the cell it started in.
+     *
+     * The agent should then be moved to the returned cell with {@link #unlinkAgentFromCell(int)}
+     * and {@link #linkAgentToCell(int, int)}.  Until it is, the cells are out of step with
+     * its location.  This lets a step move agents on several threads, and decide for
+     * itself when an agent crosses into cells another thread is working on.
+     * @param slot Slot of the agent to move
+     * @return Index of the cell the agent should now be in
+     */
+    public int advanceAgent(int slot)
+    {
+	int nextX = agents.getX(slot) + agents.getDx(slot);
+	if (nextX < 0 || nextX >= getWidth())
+	{
+	    reverseDx(slot);
+	    nextX = agents.getX(slot) + agents.getDx(slot);
+	}
+	int nextY = agents.getY(slot) + agents.getDy(slot);
+	if (nextY < 0 || nextY >= getHeight())
+	{
+	    reverseDy(slot);
+	    nextY = agents.getY(slot) + agents.getDy(slot);
+	}
+
+	int from = agents.getCell(slot);
+	int fx = from % cellsWide;
+	int fy = from / cellsWide;
+	int tx = nextX / cellWidth;
+	int ty = nextY / cellHeight;
+	if (isOpenMove(fx, fy, tx, ty))
+	{
+	    agents.setX(slot, nextX);
+	    agents.setY(slot, nextY);
+	    return tx + ty * cellsWide;
+	}
+	return moveAgent(slot, fx, fy, tx, ty);
+    }
+
+    /**
+     * Kernel used by {@link #advanceAgents(int[], int, int[], int[], int[])}, or null
+     * if the JDK Vector API is not available, see {@link #isBatchMovementAvailable()}
+     */
+    private static final MovementKernel movementKernel = loadMovementKernel();
+
+    /**
+     * Loads the Vector API movement kernel, if both it and the Vector API are present
+     * @return The kernel, or null to move agents one at a time
+     */
+    private static MovementKernel loadMovementKernel()
+    {
+	if (Boolean.getBoolean("simzombie.scalarMovement"))
+	{
+	    return null;
+	}
+	try
+	{
+	    // the incubator module is only resolved when added with --add-modules
+	    Class.forName("jdk.incubator.vector.IntVector");
+	    return (MovementKernel) Class.forName("simzombie.engine.environment.VectorMovementKernel").getDeclaredConstructor().newInstance();
+	}
+	catch (Exception ex)
+	{
+	    return null;
+	}
+	catch (LinkageError ex)
+	{
+	    return null;
+	}
+    }
+
+    /**
+     * Whether {@link #advanceAgents(int[], int, int[], int[], int[])} moves agents in
+     * batches with vector instructions.  This needs the JDK Vector API (run with
+     * --add-modules jdk.incubator.vector), the VectorMovementKernel class compiled from
+     * the src-vector folder, and agents kept on the heap.  The system property
+     * simzombie.scalarMovement turns it off.
+     * @return True if moving agents in batches is worthwhile
+     */
+    public boolean isBatchMovementAvailable()
+    {
+	return movementKernel != null && agents.movementColumns() != null;
+    }
+
+    /**
+     * Moves a batch of agents along their trajectories, as {@link #advanceAgent(int)} does
+     * for each of them in turn, with the same results.  The arithmetic for the whole batch
+     * is done by the movement kernel, and only the agents which start in a cell with walls
+     * nearby are then moved through the wall checks one at a time.
+     *
+     * As with {@link #advanceAgent(int)}, the agents are left in the cells they started in.
+     * @param slots Slots of the agents to move, each at most once
+     * @param count Number of slots to move
+     * @param nextXs Scratch space, at least count long
+     * @param nextYs Scratch space, at least count long
+     * @param destinations Filled with the index of the cell each agent should now be in, in the order of slots
+     */
+    public void advanceAgents(int[] slots, int count, int[] nextXs, int[] nextYs, int[] destinations)
+    {
+	int[][] columns = movementKernel == null ? null : agents.movementColumns();
+	if (columns == null)
+	{
+	    for (int i = 0; i < count; i++)
+	    {
+		destinations[i] = advanceAgent(slots[i]);
+	    }
+	    return;
+	}
+	movementKernel.advance(columns[0], columns[1], columns[2], columns[3], slots, count,
+		getWidth(), getHeight(), nextXs, nextYs);
+	for (int i = 0; i < count; i++)
+	{
+	    int slot = slots[i];
+	    int from = agents.getCell(slot);
+	    int fx = from % cellsWide;
+	    int fy = from / cellsWide;
+	    int tx = nextXs[i] / cellWidth;
+	    int ty = nextYs[i] / cellHeight;
+	    if (isOpenMove(fx, fy, tx, ty))
+	    {
+		agents.setX(slot, nextXs[i]);
+		agents.setY(slot, nextYs[i]);
+		destinations[i] = tx + ty * cellsWide;
+	    }
+	    else
+	    {
+		destinations[i] = moveAgent(slot, fx, fy, tx, ty);
+	    }
+	}
+    }
+
+    /**
+     * Whether a move can be made without consulting any walls: it stays within its cell, or
+     * it starts in an {@link #OPEN} cell and ends in a neighbouring one
+     * @param fx Column of the cell the move starts in
+     * @param fy Row of the cell the move starts in
+     * @param tx Column of the cell the move ends in
+     * @param ty Row of the cell the move ends in
+     * @return True if {@link #moveAgent(int, int, int, int, int)} would simply move the agent into the cell it ends in
+     */
+    private boolean isOpenMove(int fx, int fy, int tx, int ty)
+    {
+	int stepX = tx - fx;
+	int stepY = ty - fy;
+	return (stepX | stepY) == 0 || ((walls[(fx + 1) + (fy + 1) * wallStride] & OPEN) != 0
+		&& stepX >= -1 && stepX <= 1 && stepY >= -1 && stepY <= 1);
+    }
+
+    /**
+     * Takes an agent out of the cell it is in, leaving it in no cell at all
+     *
+     * Only the agent and its neighbours in that cell are touched, so agents in different
+     * cells may be unlinked and linked on different threads at the same time.
+     * @param slot Slot of the agent
+     */
+    public void unlinkAgentFromCell(int slot)
+    {
+	removeFromCell(slot, agents.getCell(slot));
+    }
+
+    /**
+     * Puts an agent taken out of its cell by {@link #unlinkAgentFromCell(int)} into a cell
+     * @param slot Slot of the agent
+     * @param cell Index of the cell, which should match the agent's location
+     */
+    public void linkAgentToCell(int slot, int cell)
+    {
+	agents.setCell(slot, cell);
+	addToCell(slot, cell);
+    }
+
+    /**
+     * Multiply the current x direction of an agent by -1, moving in the opposite direction
+     * @param slot Slot of the agent
+     */
+    private void reverseDx(int slot)
+    {
+	agents.setDx(slot, -agents.getDx(slot));
+    }
+
+    /**
+     * Multiply the current y direction of an agent by -1, moving in the opposite direction
+     * @param slot Slot of the agent
+     */
+    private void reverseDy(int slot)
+    {
+	agents.setDy(slot, -agents.getDy(slot));
+    }
+
+    /**
+     * Adjusts the location of an agent by its dx and dy, without changing its cell
+     * @param slot Slot of the agent
+     */
+    private void adjustLocationByDxDy(int slot)
+    {
+	agents.setX(slot, agents.getX(slot) + agents.getDx(slot));
+	agents.setY(slot, agents.getY(slot) + agents.getDy(slot));
+    }
+
+    /**
+     * Adds agents to the environment
+     * @param agents Array of agents to add
+     */
+    public synchronized void addAgents(Agent[] agents)
+    {
+	for (Agent a : agents)
+	{
+	    addAgent(a);
+	}
+    }
+
+    /**
+     * Adds agents to the environment
+     * @param agents Collection of agents to add
+     */
+    public synchronized void addAgents(Collection<Agent> agents)
+    {
+	for (Agent a : agents)
+	{
+	    addAgent(a);
+	}
+    }
+
+    /**
+     * Adds a single agent to the environment, copying its state into the agent store
+     * @param a Agent to add
+     */
+    public synchronized void addAgent(Agent a)
+    {
+	addAgent(a.getId(), a.getType().getUniqueIdentifier(), a.getLocation().getX(), a.getLocation().getY(),
+		a.getdx(), a.getdy(), a.getAge(), a.getLatency(), a.isImmobile() ? AgentStore.IMMOBILE : 0);
+    }
+
+    /**
+     * Adds a single agent to the environment from its state
+     * @param id Unique id of the agent
+     * @param type {@link AgentType#getUniqueIdentifier() Unique identifier} of the agent's type
+     * @param x Horizontal location of the agent, in pixels
+     * @param y Vertical location of the agent, in pixels
+     * @param dx Number of pixels the agent moves in the x direction each step
+     * @param dy Number of pixels the agent moves in the y direction each step
+     * @param age Age of the agent
+     * @param latency Number of steps remaining before the agent's latency period has elapsed
+     * @param flags Flags such as {@link AgentStore#IMMOBILE}
+     * @return Slot of the new agent in the agent store
+     */
+    public int addAgent(int id, int type, int x, int y, int dx, int dy, int age, int latency, int flags)
+    {
+	int cell = getCellIndex(x / cellWidth, y / cellHeight);
+	int slot = agents.add(id, type, x, y, dx, dy, age, latency, flags, cell);
+	addToType(slot, type);
+	addToCell(slot, cell);
+	return slot;
+    }
+
     /**
-     * A Map that stores all the agents in a given cell, referred to using a CellReference
+     * Removes a single agent from the environment
+     *
+     * The agent is found by its id, which means searching the agent store.
+     * Use {@link #removeAgent(int)} where the slot is known.
+     * @param a Agent to remove
      */
-    private final Map<CellReference, Set<Agent>> agentsByCell = new HashMap<CellReference, Set<Agent>>();
+    public synchronized void removeAgent(Agent a)
+    {
+	int slot = agents.findSlot(a.getId());
+	if (slot != AgentStore.NONE)
+	{
+	    removeAgent(slot);
+	}
+    }
+
     /**
-     * A Map that stores all the cells in the environment, accessible using a CellReference
+     * Removes a single agent from the environment
+     *
+     * The agent in the last slot of the agent store is moved into the freed slot.
+     * @param slot Slot of the agent to remove
      */
-    private final Map<CellReference, Cell> cells = Collections.synchronizedMap(new HashMap<CellReference, Cell>());
+    public void removeAgent(int slot)
+    {
+	removeFromCell(slot, agents.getCell(slot));
+	removeFromType(slot, agents.getType(slot));
+	if (agents.remove(slot) != AgentStore.NONE)
+	{
+	    relink(slot);
+	}
+    }
 
     /**
-     * The width of each cell, in pixels
+     * Removes all agents from the environment
      */
-    private int cellWidth = 25;
+    public synchronized void removeAllAgents()
+    {
+	agents.clear();
+	Arrays.fill(cellHeads, AgentStore.NONE);
+	Arrays.fill(dormantHeads, AgentStore.NONE);
+	Arrays.fill(cellAgentCounts, 0);
+	for (int[] counts : cellTypeCounts)
+	{
+	    Arrays.fill(counts, 0);
+	}
+	Arrays.fill(typeCounts, 0);
+	pendingSlots.clear();
+	pendingTypes.clear();
+    }
+
     /**
-     * The height of each cell, in pixels
+     * Returns only agents of a specified AgentType
+     * @param type Type of agent to return
+     * @return List of Agents of the given type, see {@link #getAgents()}
      */
-    private int cellHeight = 25;
+    public synchronized List<Agent> getAgentsOfType(AgentType type)
+    {
+	int count = countAgentsOfType(type);
+	List<Agent> returner = new ArrayList<Agent>(count);
+	for (int i = 0; i < count; i++)
+	{
+	    returner.add(getAgent(getAgentOfType(type, i)));
+	}
+	return returner;
+    }
+
     /**
-     * How many cells wide the environment is
+     * Counts the agents of a specified AgentType
+     * @param type Type of agent to count
+     * @return Number of agents of the given type
      */
-    private int cellsWide = 20;
+    public int countAgentsOfType(AgentType type)
+    {
+	int id = type.getUniqueIdentifier();
+	return id < typeCounts.length ? typeCounts[id] : 0;
+    }
+
     /**
-     * How many cells high the environment is
+     * Retrieves a single agent of a specified AgentType
+     *
+     * Together with {@link #countAgentsOfType(AgentType)} this iterates over the
+     * agents of one type without looking at any others.  Agents are in no particular
+     * order, and the order changes as agents are added and removed.
+     * @param type Type of agent
+     * @param i Position of the agent among those of its type, from 0 to {@link #countAgentsOfType(AgentType)} - 1
+     * @return Slot of the agent
      */
-    private int cellsHigh = 20;
+    public int getAgentOfType(AgentType type, int i)
+    {
+	return typeMembers[type.getUniqueIdentifier()][i];
+    }
 
     /**
-     * Utility constructor which creates a default Environment
+     * Changes the type of an agent, keeping the counts of each type up to date
+     * @param slot Slot of the agent
+     * @param type New type of the agent
      */
-    public Environment()
+    public void setAgentType(int slot, AgentType type)
     {
-	this(null);
+	setAgentType(slot, type.getUniqueIdentifier());
     }
 
     /**
-     * Constructs an environment with a specific set of cells
-     * @param givenCells Cells to populate the environment with.  If null, new cells are created.
+     * Changes the type of an agent, keeping the counts of each type up to date
+     * @param slot Slot of the agent
+     * @param type Unique identifier of the new type
      */
-    public Environment(Map<CellReference, Cell> givenCells)
+    private void setAgentType(int slot, int type)
     {
-	if (givenCells == null)
-	{
-	    for (int i = 0; i < cellsWide; i++)
-	    {
-		for (int j = 0; j < cellsHigh; j++)
-		{
-		    CellReference cr = new CellReference(i, j);
-		    synchronized(cells)
-		    {
-			cells.put(cr, new Cell());
-			agentsByCell.put(cr, new HashSet<Agent>());
-		    }
-		}
-	    }
-	}
-	else
+	int previous = agents.getType(slot);
+	if (previous != type)
 	{
-	    for (CellReference cr : givenCells.keySet())
-	    {
-		cells.put(cr, givenCells.get(cr));
-		agentsByCell.put(cr, new HashSet<Agent>());
-	    }
+	    removeFromType(slot, previous);
+	    agents.setType(slot, type);
+	    addToType(slot, type);
+	    int cell = agents.getCell(slot);
+	    cellTypeCounts[previous][cell]--;
+	    cellTypeCounts[type][cell]++;
 	}
     }
 
     /**
-     * Gets all agents within the environment
-     * @return An iterable set of all agents in the environment
+     * Queues a change of type for an agent, to be made by {@link #commitTransitions(TransitionListener)}
+     *
+     * Nothing about the agent changes until then, so a step can queue transitions while
+     * it is still reading the state of every agent.  The agent keeps its slot, id, location
+     * and cell when the transition is made.  No agents may be removed while transitions
+     * are queued, as that would disturb the queued slots; adding agents is fine.
+     * @param slot Slot of the agent
+     * @param type Type the agent will change to
      */
-    public Set<Agent> getAgents()
+    public void queueTransition(int slot, AgentType type)
     {
-	return agents;
+	queueTransition(slot, type.getUniqueIdentifier());
     }
 
     /**
-     * Gets a specific cell given a cell reference
-     * @param cr CellReference referring to the desired cell
-     * @return Cell given the CellReference.  Will return null if an invalid CellReference is given
+     * Queues a change of type for an agent, see {@link #queueTransition(int, AgentType)}
+     * @param slot Slot of the agent
+     * @param type Unique identifier of the type the agent will change to
      */
-    public Cell getCell(CellReference cr)
+    public void queueTransition(int slot, int type)
     {
-        synchronized(cells)
-        {
-            return cells.get(cr);
-        }
+	pendingSlots.add(slot);
+	pendingTypes.add(type);
     }
 
-    // this method takes adjacent cells and works out which edge
-    // is being transgressed and verifies the validity of this move
     /**
-     * Takes adjacent cells and calculates which edge is being transgressed and verifies the validity of the move.
-     *
-     * Validity takes into account the boundaries of the environment and also any walls in both the from and to cells
-     * If the move is valid, the agent is moved.  If not, the agents trajectory is adjusted and then moved.
-     * 
-     * @param a The agent moving
-     * @param from Indicates which cell the Agent is currently in
-     * @param to Indicates which cell the Agent is moving to
-     */
-    private void moveAgent(Agent a, CellReference from, CellReference to)
-    {
-	if (from.equals(to))
-        {
-            a.adjustLocationByDxDy();
-            return;
-        }
-
-        Cell cellFrom = getCell(from);
-        Cell cellTo = getCell(to);
-
-        // transgression must be vertical
-        if (from.getX() == to.getX())
-        {
-	    if (cellTo == null)
-	    {
-		a.reversedy();
-		a.adjustLocationByDxDy();
-		return;
-	    }
-            if (from.getY() > to.getY())
-            {
-                // we're moving into the cell above
-                if (!cellFrom.isNorthWallPresent())
-                {
-                    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-                }
-                else
-                {
-                    a.reversedy();
-                    a.adjustLocationByDxDy();
-                }
-            }
-            else
-            {
-                // we're moving into the cell below
-                if (!cellTo.isNorthWallPresent())
-                {
-                    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-                }
-                else
-                {
-                    a.reversedy();
-                    a.adjustLocationByDxDy();
-                }
-            }
-        }
-        // trangression must be horizontal
-        else if (from.getY() == to.getY())
-        {
-	    if (cellTo == null)
-	    {
-		a.reversedx();
-		a.adjustLocationByDxDy();
-		return;
-	    }
-            if (from.getX() > to.getX())
-            {
-                // we're moving to the west
-                if (!cellFrom.isWestWallPresent())
-                {
-                    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-                }
-                else
-                {
-                    a.reversedx();
-                    a.adjustLocationByDxDy();
-                }
-            }
-            else
-            {
-                // we're moving to the east
-                if (!cellTo.isWestWallPresent())
-                {
-                    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-                }
-                else
-                {
-                    a.reversedx();
-                    a.adjustLocationByDxDy();
-                }
-            }
-        }
-        else
-        {
-	    CellReference northReference = new CellReference(from.getX(), from.getY() - 1);
-	    CellReference westReference = new CellReference(from.getX() - 1, from.getY());
-	    CellReference eastReference = new CellReference(from.getX() + 1, from.getY());
-	    CellReference southReference = new CellReference(from.getX(), from.getY() + 1);
-
-	    Cell north = getCell(northReference);
-	    Cell west = getCell(westReference);
-	    Cell east = getCell(eastReference);
-	    Cell south = getCell(southReference);
-
-            // this means an agent is moving diagonally into the next cell
-            // note: We need to acquire four cells to calculate these diagonals
-            if (to.getX() < from.getX() && to.getY() < from.getY())
-            {
-		if (north.isWestWallPresent() && cellFrom.isWestWallPresent() && !cellFrom.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, northReference);
-		}
-		else if (cellFrom.isNorthWallPresent() && west.isNorthWallPresent() && !cellFrom.isWestWallPresent())
-		{
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, westReference);
-		}
-		else if (cellFrom.isNorthWallPresent() && cellFrom.isWestWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else if (north.isWestWallPresent() && west.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else
-		{
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-		}
-            }
-            else if (to.getX() > from.getX() && to.getY() > from.getY())
-            {
-		if (south.isNorthWallPresent() && cellTo.isNorthWallPresent() && !east.isWestWallPresent())
-		{
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, eastReference);
-		}
-		else if (cellTo.isWestWallPresent() && east.isWestWallPresent() && !south.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, southReference);
-		}
-		else if (cellTo.isNorthWallPresent() && cellTo.isWestWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else if (south.isNorthWallPresent() && east.isWestWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else
-		{
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-		}
-            }
-            else if (to.getX() > from.getX() && to.getY() < from.getY())
-            {
-		if (cellFrom.isNorthWallPresent() && east.isNorthWallPresent() && !east.isWestWallPresent())
-		{
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, eastReference);
-		}
-		else if (east.isWestWallPresent() && cellTo.isWestWallPresent() && !cellFrom.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, northReference);
-		}
-		else if (east.isWestWallPresent() && cellFrom.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else if (cellTo.isWestWallPresent() && east.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else
-		{
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-		}
-            }
-            else if (to.getX() < from.getX() && to.getY() > from.getY())
-            {
-		if (cellFrom.isWestWallPresent() && south.isWestWallPresent() && !south.isNorthWallPresent())
-		{
-		    a.reversedx();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, southReference);
-		}
-		else if (cellTo.isNorthWallPresent() && south.isNorthWallPresent() && !cellFrom.isWestWallPresent())
-		{
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, westReference);
-		}
-		else if (south.isNorthWallPresent() && cellFrom.isWestWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else if (cellTo.isNorthWallPresent() && south.isWestWallPresent())
-		{
-		    a.reversedx();
-		    a.reversedy();
-		    a.adjustLocationByDxDy();
-		}
-		else
-		{
-		    a.adjustLocationByDxDy();
-		    moveAgentFromTo(a, from, to);
-		}
-            }
-	    else
+     * Makes every transition queued by {@link #queueTransition(int, AgentType)}, in the order they were queued
+     * @param listener Told about each agent after its type has changed, so its state can be
+     * set up for the new type.  May be null.
+     * @return Number of transitions made
+     */
+    public int commitTransitions(TransitionListener listener)
+    {
+	int count = pendingSlots.size();
+	for (int i = 0; i < count; i++)
+	{
+	    int slot = pendingSlots.get(i);
+	    int previous = agents.getType(slot);
+	    setAgentType(slot, pendingTypes.get(i));
+	    if (listener != null)
 	    {
-		System.out.println("OH DEAR~!");
+		listener.agentTransitioned(this, slot, previous);
 	    }
-        }
+	}
+	pendingSlots.clear();
+	pendingTypes.clear();
+	return count;
     }
 
     /**
-     * Attempts to move a specific agent in the environment based on its current trajectory.
-     * @param a Agent to move
+     * Adds an agent to the end of the list of agents of its type
+     * @param slot Slot of the agent
+     * @param type Unique identifier of the type
      */
-    public void attemptToMoveAgent(Agent a)
+    private void addToType(int slot, int type)
     {
-	Location l = a.getNextLocation();
-	if (l.getX() < 0 || l.getX() >= getWidth())
+	if (type >= typeCounts.length)
 	{
-	    a.reversedx();
+	    int[][] members = Arrays.copyOf(typeMembers, type + 1);
+	    for (int i = typeMembers.length; i < members.length; i++)
+	    {
+		members[i] = new int[16];
+	    }
+	    typeMembers = members;
+	    typeCounts = Arrays.copyOf(typeCounts, type + 1);
+	    int[][] counts = Arrays.copyOf(cellTypeCounts, type + 1);
+	    for (int i = cellTypeCounts.length; i < counts.length; i++)
+	    {
+		counts[i] = new int[cells.length];
+	    }
+	    cellTypeCounts = counts;
 	}
-	if (l.getY() < 0 || l.getY() >= getHeight())
+	int count = typeCounts[type];
+	if (count == typeMembers[type].length)
 	{
-	    a.reversedy();
+	    typeMembers[type] = Arrays.copyOf(typeMembers[type], count * 2);
 	}
-	
-        moveAgent(a,
-		a.getCellReference(),
-                new CellReference(a.getNextLocation(), cellWidth, cellHeight));
+	typeMembers[type][count] = slot;
+	agents.setTypePosition(slot, count);
+	typeCounts[type] = count + 1;
     }
 
     /**
-     * Adds agents to the environment
-     * @param agents Array of agents to add
+     * Takes an agent out of the list of agents of its type, filling the gap with the last in the list
+     * @param slot Slot of the agent
+     * @param type Unique identifier of the type
      */
-    public void addAgents(Agent[] agents)
+    private void removeFromType(int slot, int type)
     {
-	for (Agent a : agents)
-	{
-	    addAgent(a);
-	}
+	int position = agents.getTypePosition(slot);
+	int last = --typeCounts[type];
+	int moved = typeMembers[type][last];
+	typeMembers[type][position] = moved;
+	agents.setTypePosition(moved, position);
     }
 
     /**
-     * Adds agents to the environment
-     * @param agents Collection of agents to add
+     * Moves agent from a cell to another. Private, as there is no checking involved.
+     *
+     * For public attempts to move an agent, {@link #attemptToMoveAgent(int)}
+     * @param slot Slot of the agent to move
+     * @param from Index of the cell the agent is currently in
+     * @param to Index of the destination cell
      */
-    public void addAgents(Collection<Agent> agents)
+    private void moveAgentFromTo(int slot, int from, int to)
     {
-	for (Agent a : agents)
+	removeFromCell(slot, from);
+	agents.setCell(slot, to);
+	addToCell(slot, to);
+    }
+
+    /**
+     * Links an agent in at the front of the agents present in a cell
+     * @param slot Slot of the agent to add
+     * @param cell Index of the cell
+     */
+    private void addToCell(int slot, int cell)
+    {
+	int[] heads = headsFor(slot);
+	int head = heads[cell];
+	agents.setPrev(slot, AgentStore.NONE);
+	agents.setNext(slot, head);
+	if (head != AgentStore.NONE)
 	{
-	    addAgent(a);
+	    agents.setPrev(head, slot);
 	}
+	heads[cell] = slot;
+	cellAgentCounts[cell]++;
+	cellTypeCounts[agents.getType(slot)][cell]++;
     }
 
     /**
-     * Adds a single agent to the environment
-     * @param a Agent to add
+     * The list heads an agent is linked into, which depends on whether it is dormant
+     * @param slot Slot of the agent
+     * @return {@link #dormantHeads} or {@link #cellHeads}
+     */
+    private int[] headsFor(int slot)
+    {
+	return agents.hasFlag(slot, AgentStore.DORMANT) ? dormantHeads : cellHeads;
+    }
+
+    /**
+     * Unlinks an agent from the agents present in a cell
+     * @param slot Slot of the agent to remove
+     * @param cell Index of the cell
      */
-    public void addAgent(Agent a)
+    private void removeFromCell(int slot, int cell)
     {
-	synchronized(agents)
+	int prev = agents.getPrev(slot);
+	int next = agents.getNext(slot);
+	if (prev == AgentStore.NONE)
+	{
+	    headsFor(slot)[cell] = next;
+	}
+	else
+	{
+	    agents.setNext(prev, next);
+	}
+	if (next != AgentStore.NONE)
 	{
-	    agents.add(a);
+	    agents.setPrev(next, prev);
 	}
-	agentsByCell.get(a.getCellReference()).add(a);
+	cellAgentCounts[cell]--;
+	cellTypeCounts[agents.getType(slot)][cell]--;
     }
 
     /**
-     * Removes a single agent from the environment
-     * @param a Agent to remove
+     * Points the neighbours and type list of an agent at its slot, after the agent store has moved it there
+     * @param to Slot the agent now occupies
      */
-    public void removeAgent(Agent a)
+    private void relink(int to)
     {
-	synchronized(agents)
+	int prev = agents.getPrev(to);
+	int next = agents.getNext(to);
+	if (prev == AgentStore.NONE)
+	{
+	    headsFor(to)[agents.getCell(to)] = to;
+	}
+	else
+	{
+	    agents.setNext(prev, to);
+	}
+	if (next != AgentStore.NONE)
 	{
-	    agents.remove(a);
+	    agents.setPrev(next, to);
 	}
-	agentsByCell.get(a.getCellReference()).remove(a);
+	typeMembers[agents.getType(to)][agents.getTypePosition(to)] = to;
     }
 
     /**
-     * Removes all agents from the environment
+     * Reorders the agent store so that the agents of each cell occupy consecutive slots,
+     * cell by cell in the order of {@link #getCellIndex(int, int)}.
+     *
+     * This is a counting sort: the count of agents in each cell gives the slot its agents
+     * start at, and the agents are placed from there with the active ones before the
+     * dormant ones, each in the order their lists held them.  Walking a cell then reads
+     * neighbouring memory, and neighbouring cells follow each other.  Agents moving
+     * between cells gradually undo this, so it is worth repeating now and then.
+     *
+     * The agents of a cell are visited in the same order as before, but every slot may
+     * change.  Anything holding slots must replace them using the returned array, which
+     * is reused by the next call.  Queued transitions are moved with their agents.
+     * @return The new slot of each agent, indexed by its old slot
      */
-    public void removeAllAgents()
+    public int[] sortAgentsByCell()
     {
-	synchronized(agents)
+	int size = agents.size();
+	if (sortOrder.length < size)
+	{
+	    sortOrder = new int[Math.max(size, sortOrder.length * 2)];
+	    sortMoves = new int[sortOrder.length];
+	}
+	int start = 0;
+	for (int cell = 0; cell < cells.length; cell++)
+	{
+	    int next = start;
+	    for (int slot = cellHeads[cell]; slot != AgentStore.NONE; slot = agents.getNext(slot))
+	    {
+		sortOrder[next++] = slot;
+	    }
+	    for (int slot = dormantHeads[cell]; slot != AgentStore.NONE; slot = agents.getNext(slot))
+	    {
+		sortOrder[next++] = slot;
+	    }
+	    start += cellAgentCounts[cell];
+	}
+	agents.reorder(sortOrder);
+	for (int slot = 0; slot < size; slot++)
+	{
+	    sortMoves[sortOrder[slot]] = slot;
+	}
+
+	start = 0;
+	for (int cell = 0; cell < cells.length; cell++)
 	{
-	    agents.clear();
+	    int end = start + cellAgentCounts[cell];
+	    int dormant = start;
+	    while (dormant < end && !agents.hasFlag(dormant, AgentStore.DORMANT))
+	    {
+		dormant++;
+	    }
+	    cellHeads[cell] = linkRun(start, dormant);
+	    dormantHeads[cell] = linkRun(dormant, end);
+	    start = end;
 	}
-	synchronized(agentsByCell)
+	for (int type = 0; type < typeCounts.length; type++)
 	{
-	    for (Set<Agent> s : agentsByCell.values())
+	    int[] members = typeMembers[type];
+	    for (int i = 0; i < typeCounts[type]; i++)
 	    {
-		s.clear();
+		members[i] = sortMoves[members[i]];
 	    }
 	}
+	for (int i = 0; i < pendingSlots.size(); i++)
+	{
+	    pendingSlots.set(i, sortMoves[pendingSlots.get(i)]);
+	}
+	return sortMoves;
     }
 
     /**
-     * Iterates through all agents and returns only agents of a specified AgentType
-     * @param type Type of agent to return
-     * @return List of Agents of the given type
+     * Links a run of consecutive slots into a list, in order
+     * @param from First slot of the run
+     * @param to One past the last slot of the run
+     * @return The head of the list, or {@link AgentStore#NONE} if the run is empty
+     */
+    private int linkRun(int from, int to)
+    {
+	for (int slot = from; slot < to; slot++)
+	{
+	    agents.setPrev(slot, slot == from ? AgentStore.NONE : slot - 1);
+	    agents.setNext(slot, slot + 1 == to ? AgentStore.NONE : slot + 1);
+	}
+	return from < to ? from : AgentStore.NONE;
+    }
+
+    /**
+     * Retrieves all agents from a specific cell within the environment
+     *
+     * Loops that run every step should prefer {@link #getFirstAgentInCell(int)} and
+     * {@link #getNextAgentInCell(int)}, which do not create anything.
+     * @param cr CellReference indicating which cell to get agents from
+     * @return All agents in a given cell, see {@link #getAgents()}
      */
-    public List<Agent> getAgentsOfType(AgentType type)
+    public synchronized List<Agent> getAgentsByCell(CellReference cr)
     {
 	List<Agent> returner = new ArrayList<Agent>();
-	synchronized(agents)
+	int cell = getCellIndex(cr);
+	for (int slot = cellHeads[cell]; slot != AgentStore.NONE; slot = agents.getNext(slot))
 	{
-	    for (Agent a : agents)
-	    {
-		if (a.isOfType(type))
-		{
-		    returner.add(a);
-		}
-	    }
+	    returner.add(getAgent(slot));
+	}
+	for (int slot = dormantHeads[cell]; slot != AgentStore.NONE; slot = agents.getNext(slot))
+	{
+	    returner.add(getAgent(slot));
 	}
 	return returner;
     }
 
     /**
-     * Moves agent from a cell to another. Private, as there is no checking involved.
+     * Retrieves the number of agents in a specific cell, active or dormant
+     * @param cell Index of the cell, see {@link #getCellIndex(int, int)}
+     * @return Number of agents currently in the cell
+     */
+    public int getAgentCountInCell(int cell)
+    {
+	return cellAgentCounts[cell];
+    }
+
+    /**
+     * Retrieves the number of agents of a type in a specific cell, active or dormant
+     * @param cell Index of the cell, see {@link #getCellIndex(int, int)}
+     * @param type Type of agent to count
+     * @return Number of agents of the type currently in the cell
+     */
+    public int getAgentCountInCell(int cell, AgentType type)
+    {
+	int typeId = type.getUniqueIdentifier();
+	return typeId < cellTypeCounts.length ? cellTypeCounts[typeId][cell] : 0;
+    }
+
+    /**
+     * Retrieves the first active agent in a specific cell
+     * @param cell Index of the cell, see {@link #getCellIndex(int, int)}
+     * @return Slot of the first active agent in the cell, or {@link AgentStore#NONE} if there are none
+     */
+    public int getFirstAgentInCell(int cell)
+    {
+	return cellHeads[cell];
+    }
+
+    /**
+     * Retrieves the first dormant agent in a specific cell, see {@link #setAgentDormant(int, boolean)}
+     * @param cell Index of the cell, see {@link #getCellIndex(int, int)}
+     * @return Slot of the first dormant agent in the cell, or {@link AgentStore#NONE} if there are none
+     */
+    public int getFirstDormantAgentInCell(int cell)
+    {
+	return dormantHeads[cell];
+    }
+
+    /**
+     * Moves an agent between the active and dormant agents of its cell
      *
-     * For public attempts to move an agent, {@link #attemptToMoveAgent(Agent)}
-     * @param a Agent to move
-     * @param from Cell the agent is currently in
-     * @param to Destination cell
+     * Dormant agents are still part of the environment: they are counted, found by type
+     * and by {@link #forEachAgentWithin(int, int, int, AgentType, AgentVisitor)}, but loops
+     * over the active agents of a cell skip them.  A simulation makes agents which never
+     * move or act dormant, so that stepping the active agents costs nothing for them.
+     * @param slot Slot of the agent
+     * @param dormant True to make the agent dormant, false to make it active
+     */
+    public void setAgentDormant(int slot, boolean dormant)
+    {
+	if (agents.hasFlag(slot, AgentStore.DORMANT) == dormant)
+	{
+	    return;
+	}
+	int cell = agents.getCell(slot);
+	removeFromCell(slot, cell);
+	agents.setFlags(slot, agents.getFlags(slot) ^ AgentStore.DORMANT);
+	addToCell(slot, cell);
+    }
+
+    /**
+     * Retrieves the agent following another in the same cell
+     * @param slot Slot of an agent
+     * @return Slot of the next agent in the same cell, or {@link AgentStore#NONE} if there are no more
      */
-    private void moveAgentFromTo(Agent a, CellReference from, CellReference to)
+    public int getNextAgentInCell(int slot)
     {
-	agentsByCell.get(from).remove(a);
-	agentsByCell.get(to).add(a);
-	a.setCellReference(to);
+	return agents.getNext(slot);
     }
 
     /**
-     * Retrieves all agents from a specific cell within the environment
-     * @param cr CellReference indicating which cell to get agents from
-     * @return All agents in a given cell
+     * Visits every agent within a distance of a point
+     *
+     * Only the cells the circle touches are searched, so the search crosses cell
+     * boundaries (and walls) but does not look any further than it needs to.  When
+     * a type is given, cells with no agents of that type are skipped without being walked.
+     * Distances are compared squared, in whole pixels, and an agent exactly
+     * radius away is not visited.  Nothing is created per call.
+     * @param x Horizontal position of the centre, in pixels
+     * @param y Vertical position of the centre, in pixels
+     * @param radius Distance from the centre, in pixels
+     * @param type Only agents of this type are visited; null visits every type
+     * @param visitor Visitor to call for each agent found
+     * @return False if the visitor ended the query early, true otherwise
+     */
+    public boolean forEachAgentWithin(int x, int y, int radius, AgentType type, AgentVisitor visitor)
+    {
+	int typeId = type == null ? 0 : type.getUniqueIdentifier();
+	int radiusSquared = radius * radius;
+	int firstColumn = Math.max(0, x - radius) / cellWidth;
+	int lastColumn = Math.min(cellsWide - 1, (x + radius) / cellWidth);
+	int firstRow = Math.max(0, y - radius) / cellHeight;
+	int lastRow = Math.min(cellsHigh - 1, (y + radius) / cellHeight);
+	for (int j = firstRow; j <= lastRow; j++)
+	{
+	    for (int i = firstColumn; i <= lastColumn; i++)
+	    {
+		int cell = getCellIndex(i, j);
+		if (typeId != 0 && (typeId >= cellTypeCounts.length || cellTypeCounts[typeId][cell] == 0))
+		{
+		    continue;
+		}
+		if (!visitWithin(cellHeads[cell], x, y, radiusSquared, typeId, visitor)
+			|| !visitWithin(dormantHeads[cell], x, y, radiusSquared, typeId, visitor))
+		{
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Visits the agents of one list of a cell that are within a distance of a point,
+     * for {@link #forEachAgentWithin(int, int, int, AgentType, AgentVisitor)}
+     * @return False if the visitor ended the query early, true otherwise
      */
-    public Set<Agent> getAgentsByCell(CellReference cr)
+    private boolean visitWithin(int head, int x, int y, int radiusSquared, int typeId, AgentVisitor visitor)
     {
-	return agentsByCell.get(cr);
+	for (int slot = head; slot != AgentStore.NONE; slot = agents.getNext(slot))
+	{
+	    if (typeId != 0 && agents.getType(slot) != typeId)
+	    {
+		continue;
+	    }
+	    int dx = agents.getX(slot) - x;
+	    int dy = agents.getY(slot) - y;
+	    if (dx * dx + dy * dy < radiusSquared && !visitor.visit(slot))
+	    {
+		return false;
+	    }
+	}
+	return true;
     }
 
     /**
      * Retrieves all cells within the enrivonment
+     *
+     * The map is built on request from the cell grid; the cells themselves are shared,
+     * but adding or removing entries has no effect on the environment.
      * @return Returns a map of cells, indexed by CellReference
      */
     public Map<CellReference, Cell> getCellMap()
     {
-	return cells;
+	Map<CellReference, Cell> cellMap = new HashMap<CellReference, Cell>();
+	for (int i = 0; i < cells.length; i++)
+	{
+	    cellMap.put(cellReferences[i], cells[i]);
+	}
+	return cellMap;
     }
 
     /**
@@ -596,17 +1672,7 @@ public class Environment implements Serializable {
 	if (this.cellsWide != cellsWide)
 	{
 	    this.cellsWide = cellsWide;
-	    cells.clear();
-	    agentsByCell.clear();
-	    for (int i = 0; i < this.cellsWide; i++)
-	    {
-		for (int j = 0; j < cellsHigh; j++)
-		{
-		    CellReference cr = new CellReference(i, j);
-		    cells.put(cr, new Cell());
-		    agentsByCell.put(cr, new HashSet<Agent>());
-		}
-	    }
+	    createCells();
 	}
     }
 
@@ -622,17 +1688,7 @@ public class Environment implements Serializable {
 	if (this.cellsHigh != cellsHigh)
 	{
 	    this.cellsHigh = cellsHigh;
-	    cells.clear();
-	    agentsByCell.clear();
-	    for (int i = 0; i < cellsWide; i++)
-	    {
-		for (int j = 0; j < this.cellsHigh; j++)
-		{
-		    CellReference cr = new CellReference(i, j);
-		    cells.put(cr, new Cell());
-		    agentsByCell.put(cr, new HashSet<Agent>());
-		}
-	    }
+	    createCells();
 	}
     }
 
@@ -90,8 +90,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    if (drawingHorizontally)
 		    {
 			CellReference cr = new CellReference(cellx, celly);
-			Cell c = environment.getCell(cr);
-			c.setWestWall(makingWalls);
+			environment.setWestWall(cr.getX(), cr.getY(), makingWalls);
 		    }
 		}
 		if (locWithinY <= locWithinX && locWithinY <= distanceToEastEdge && locWithinY <= distanceToSouthEdge)
@@ -99,8 +98,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    if (!drawingHorizontally)
 		    {
 			CellReference cr = new CellReference(cellx, celly);
-			Cell c = environment.getCell(cr);
-			c.setNorthWall(makingWalls);
+			environment.setNorthWall(cr.getX(), cr.getY(), makingWalls);
 		    }
 		}
 		if (distanceToEastEdge <= locWithinX && distanceToEastEdge <= locWithinY && distanceToEastEdge <= distanceToSouthEdge)
@@ -108,8 +106,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    if (drawingHorizontally)
 		    {
 			CellReference cr = new CellReference(Math.min(cellx + 1, environment.getCellsWide() - 1), celly);
-			Cell c = environment.getCell(cr);
-			c.setWestWall(makingWalls);
+			environment.setWestWall(cr.getX(), cr.getY(), makingWalls);
 		    }
 		}
 		if (distanceToSouthEdge <= locWithinX && distanceToSouthEdge <= locWithinY && distanceToSouthEdge <= distanceToEastEdge)
@@ -117,8 +114,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    if (!drawingHorizontally)
 		    {
 			CellReference cr = new CellReference(cellx, Math.min(celly + 1, environment.getCellsHigh() - 1));
-			Cell c = environment.getCell(cr);
-			c.setNorthWall(makingWalls);
+			environment.setNorthWall(cr.getX(), cr.getY(), makingWalls);
 		    }
 		}
 
@@ -162,7 +158,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    {
 			makingWalls = true;
 		    }
-		    c.setWestWall(makingWalls);
+		    environment.setWestWall(cr.getX(), cr.getY(), makingWalls);
 		    drawingHorizontally = true;
 		}
 		if (locWithinY <= locWithinX && locWithinY <= distanceToEastEdge && locWithinY <= distanceToSouthEdge)
@@ -177,7 +173,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    {
 			makingWalls = true;
 		    }
-		    c.setNorthWall(makingWalls);
+		    environment.setNorthWall(cr.getX(), cr.getY(), makingWalls);
 		    drawingHorizontally = false;
 		}
 		if (distanceToEastEdge <= locWithinX && distanceToEastEdge <= locWithinY && distanceToEastEdge <= distanceToSouthEdge)
@@ -192,7 +188,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    {
 			makingWalls = true;
 		    }
-		    c.setWestWall(makingWalls);
+		    environment.setWestWall(cr.getX(), cr.getY(), makingWalls);
 		    drawingHorizontally = true;
 		}
 		if (distanceToSouthEdge <= locWithinX && distanceToSouthEdge <= locWithinY && distanceToSouthEdge <= distanceToEastEdge)
@@ -207,7 +203,7 @@ public class EnvironmentEditor extends JInternalFrame {
 		    {
 			makingWalls = true;
 		    }
-		    c.setNorthWall(makingWalls);
+		    environment.setNorthWall(cr.getX(), cr.getY(), makingWalls);
 		    drawingHorizontally = false;
 		}
 
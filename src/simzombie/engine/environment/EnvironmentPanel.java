@@ -81,7 +81,7 @@ public class EnvironmentPanel extends JPanel {
 	{
 	    for (int j = 0; j < environment.getCellsHigh(); j++)
 	    {
-		Cell thisCell = environment.getCell(new CellReference(i, j));
+		Cell thisCell = environment.getCell(i, j);
 
 		if (thisCell.isWestWallPresent())
 		{
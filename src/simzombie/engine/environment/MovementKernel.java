@@ -0,0 +1,56 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.environment;
+
+/**
+ * Moves a batch of agents along their trajectories, bouncing them off the edges of the
+ * environment, without looking at any walls.
+ *
+ * This is the arithmetic of {@link Environment#advanceAgent(int)} for many agents at a
+ * time, so that it can be run with vector instructions; see {@link Environment#advanceAgents(int[], int, int[], int[], int[])},
+ * which does the rest of the move one agent at a time.  The only implementation uses the
+ * JDK Vector API and is kept apart from the rest of the source, see {@link Environment#isBatchMovementAvailable()}.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+interface MovementKernel {
+
+    /**
+     * Works out the next location of each agent.  An agent which would leave the
+     * environment has its direction along that axis reversed first, exactly as
+     * {@link Environment#advanceAgent(int)} does.
+     * @param xs Column of x locations, indexed by slot
+     * @param ys Column of y locations, indexed by slot
+     * @param dxs Column of x directions, indexed by slot; reversed directions are written back
+     * @param dys Column of y directions, indexed by slot; reversed directions are written back
+     * @param slots Slots of the agents to move, each at most once
+     * @param count Number of slots to move
+     * @param width Width of the environment, in pixels
+     * @param height Height of the environment, in pixels
+     * @param nextXs Filled with the next x location of each agent, in the order of slots
+     * @param nextYs Filled with the next y location of each agent, in the order of slots
+     */
+    public void advance(int[] xs, int[] ys, int[] dxs, int[] dys, int[] slots, int count,
+	    int width, int height, int[] nextXs, int[] nextYs);
+}
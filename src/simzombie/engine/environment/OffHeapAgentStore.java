@@ -0,0 +1,432 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package simzombie.engine.environment;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Holds the state of every agent in an environment outside the heap.
+ *
+ * Each column of an {@link AgentStore} is kept in a direct buffer instead of an array,
+ * so the garbage collector never has to look at or copy it, and its pauses stay the
+ * same however large the population grows.  Reading and writing state costs a little
+ * more than it does on the heap.  The memory of a buffer is given back once the buffer
+ * itself is collected, which for the old buffers left behind by growing can take a while.
+ * Direct buffers are used rather than the Foreign Memory API, which keeps the code free
+ * of preview and incubator APIs; that API is only final from Java 22.
+ *
+ * The store is saved as plain values, and read back into new buffers.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class OffHeapAgentStore extends AgentStore {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient IntBuffer ids;
+    private transient IntBuffer xs;
+    private transient IntBuffer ys;
+    private transient IntBuffer dxs;
+    private transient IntBuffer dys;
+    private transient IntBuffer types;
+    private transient IntBuffer latencies;
+    private transient IntBuffer ages;
+    private transient IntBuffer flags;
+    private transient IntBuffer cells;
+    private transient IntBuffer nexts;
+    private transient IntBuffer prevs;
+    private transient IntBuffer typePositions;
+    /**
+     * Spare column, as long as the others, used by {@link #reorder(int[])}
+     */
+    private transient IntBuffer spare;
+
+    /**
+     * Most agents a store can hold, as a buffer is at most Integer.MAX_VALUE bytes long
+     */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE / 4;
+
+    /**
+     * Constructs an empty store with room for a few agents
+     */
+    public OffHeapAgentStore()
+    {
+	this(16);
+    }
+
+    /**
+     * Constructs an empty store.  The arrays of the heap store beneath are left at their
+     * smallest and never used.
+     * @param capacity Number of agents to make room for before the buffers need to grow
+     */
+    public OffHeapAgentStore(int capacity)
+    {
+	super(0);
+	allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Replaces every column with an empty one
+     * @param capacity Number of agents the columns can hold
+     */
+    private void allocate(int capacity)
+    {
+	ids = column(capacity);
+	xs = column(capacity);
+	ys = column(capacity);
+	dxs = column(capacity);
+	dys = column(capacity);
+	types = column(capacity);
+	latencies = column(capacity);
+	ages = column(capacity);
+	flags = column(capacity);
+	cells = column(capacity);
+	nexts = column(capacity);
+	prevs = column(capacity);
+	typePositions = column(capacity);
+	spare = null;
+    }
+
+    private static IntBuffer column(int capacity)
+    {
+	return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, 4)).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Copies the slots in use into a longer column
+     */
+    private IntBuffer grow(IntBuffer column, int capacity)
+    {
+	IntBuffer grown = column(capacity);
+	IntBuffer used = column.duplicate();
+	used.position(0).limit(size);
+	grown.put(used);
+	grown.clear();
+	return grown;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity)
+    {
+	if (capacity > ids.capacity())
+	{
+	    if (capacity > MAX_CAPACITY)
+	    {
+		throw new IllegalArgumentException("Off-heap agent storage can hold at most " + MAX_CAPACITY + " agents, not " + capacity);
+	    }
+	    capacity = (int) Math.min(MAX_CAPACITY, Math.max(capacity, ids.capacity() * 2L));
+	    ids = grow(ids, capacity);
+	    xs = grow(xs, capacity);
+	    ys = grow(ys, capacity);
+	    dxs = grow(dxs, capacity);
+	    dys = grow(dys, capacity);
+	    types = grow(types, capacity);
+	    latencies = grow(latencies, capacity);
+	    ages = grow(ages, capacity);
+	    flags = grow(flags, capacity);
+	    cells = grow(cells, capacity);
+	    nexts = grow(nexts, capacity);
+	    prevs = grow(prevs, capacity);
+	    typePositions = grow(typePositions, capacity);
+	    spare = null;
+	}
+    }
+
+    @Override
+    int add(int id, int type, int x, int y, int dx, int dy, int age, int latency, int flag, int cell)
+    {
+	ensureCapacity(size + 1);
+	int slot = size++;
+	ids.put(slot, id);
+	types.put(slot, type);
+	xs.put(slot, x);
+	ys.put(slot, y);
+	dxs.put(slot, dx);
+	dys.put(slot, dy);
+	ages.put(slot, age);
+	latencies.put(slot, latency);
+	flags.put(slot, flag);
+	cells.put(slot, cell);
+	nexts.put(slot, NONE);
+	prevs.put(slot, NONE);
+	return slot;
+    }
+
+    @Override
+    int remove(int slot)
+    {
+	int last = --size;
+	if (slot == last)
+	{
+	    return NONE;
+	}
+	ids.put(slot, ids.get(last));
+	types.put(slot, types.get(last));
+	xs.put(slot, xs.get(last));
+	ys.put(slot, ys.get(last));
+	dxs.put(slot, dxs.get(last));
+	dys.put(slot, dys.get(last));
+	ages.put(slot, ages.get(last));
+	latencies.put(slot, latencies.get(last));
+	flags.put(slot, flags.get(last));
+	cells.put(slot, cells.get(last));
+	nexts.put(slot, nexts.get(last));
+	prevs.put(slot, prevs.get(last));
+	typePositions.put(slot, typePositions.get(last));
+	return last;
+    }
+
+    @Override
+    void reorder(int[] order)
+    {
+	ids = gather(ids, order);
+	types = gather(types, order);
+	xs = gather(xs, order);
+	ys = gather(ys, order);
+	dxs = gather(dxs, order);
+	dys = gather(dys, order);
+	ages = gather(ages, order);
+	latencies = gather(latencies, order);
+	flags = gather(flags, order);
+	cells = gather(cells, order);
+	typePositions = gather(typePositions, order);
+    }
+
+    /**
+     * The columns are buffers, so there are no arrays for a {@link MovementKernel}
+     * @return null
+     */
+    @Override
+    int[][] movementColumns()
+    {
+	return null;
+    }
+
+    /**
+     * Copies a column into the spare in a new order, and keeps the old column as the next spare
+     * @param column Column to reorder
+     * @param order See {@link #reorder(int[])}
+     * @return The reordered column
+     */
+    private IntBuffer gather(IntBuffer column, int[] order)
+    {
+	if (spare == null)
+	{
+	    spare = column(column.capacity());
+	}
+	IntBuffer gathered = spare;
+	for (int slot = 0; slot < size; slot++)
+	{
+	    gathered.put(slot, column.get(order[slot]));
+	}
+	spare = column;
+	return gathered;
+    }
+
+    @Override
+    public int getId(int slot)
+    {
+	return ids.get(slot);
+    }
+
+    @Override
+    public int getType(int slot)
+    {
+	return types.get(slot);
+    }
+
+    @Override
+    void setType(int slot, int type)
+    {
+	types.put(slot, type);
+    }
+
+    @Override
+    public int getX(int slot)
+    {
+	return xs.get(slot);
+    }
+
+    @Override
+    void setX(int slot, int x)
+    {
+	xs.put(slot, x);
+    }
+
+    @Override
+    public int getY(int slot)
+    {
+	return ys.get(slot);
+    }
+
+    @Override
+    void setY(int slot, int y)
+    {
+	ys.put(slot, y);
+    }
+
+    @Override
+    public int getDx(int slot)
+    {
+	return dxs.get(slot);
+    }
+
+    @Override
+    public void setDx(int slot, int dx)
+    {
+	dxs.put(slot, dx);
+    }
+
+    @Override
+    public int getDy(int slot)
+    {
+	return dys.get(slot);
+    }
+
+    @Override
+    public void setDy(int slot, int dy)
+    {
+	dys.put(slot, dy);
+    }
+
+    @Override
+    public int getAge(int slot)
+    {
+	return ages.get(slot);
+    }
+
+    @Override
+    public void setAge(int slot, int age)
+    {
+	ages.put(slot, age);
+    }
+
+    @Override
+    public int getLatency(int slot)
+    {
+	return latencies.get(slot);
+    }
+
+    @Override
+    public void setLatency(int slot, int latency)
+    {
+	latencies.put(slot, latency);
+    }
+
+    @Override
+    public int getFlags(int slot)
+    {
+	return flags.get(slot);
+    }
+
+    @Override
+    void setFlags(int slot, int flag)
+    {
+	flags.put(slot, flag);
+    }
+
+    @Override
+    public boolean hasFlag(int slot, int flag)
+    {
+	return (flags.get(slot) & flag) != 0;
+    }
+
+    @Override
+    public int getCell(int slot)
+    {
+	return cells.get(slot);
+    }
+
+    @Override
+    void setCell(int slot, int cell)
+    {
+	cells.put(slot, cell);
+    }
+
+    @Override
+    int getNext(int slot)
+    {
+	return nexts.get(slot);
+    }
+
+    @Override
+    void setNext(int slot, int next)
+    {
+	nexts.put(slot, next);
+    }
+
+    @Override
+    int getPrev(int slot)
+    {
+	return prevs.get(slot);
+    }
+
+    @Override
+    void setPrev(int slot, int prev)
+    {
+	prevs.put(slot, prev);
+    }
+
+    @Override
+    int getTypePosition(int slot)
+    {
+	return typePositions.get(slot);
+    }
+
+    @Override
+    void setTypePosition(int slot, int position)
+    {
+	typePositions.put(slot, position);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+	out.defaultWriteObject();
+	out.writeInt(ids.capacity());
+	for (IntBuffer column : new IntBuffer[] { ids, xs, ys, dxs, dys, types, latencies, ages, flags, cells, nexts, prevs, typePositions })
+	{
+	    for (int slot = 0; slot < size; slot++)
+	    {
+		out.writeInt(column.get(slot));
+	    }
+	}
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+	in.defaultReadObject();
+	allocate(in.readInt());
+	for (IntBuffer column : new IntBuffer[] { ids, xs, ys, dxs, dys, types, latencies, ages, flags, cells, nexts, prevs, typePositions })
+	{
+	    for (int slot = 0; slot < size; slot++)
+	    {
+		column.put(slot, in.readInt());
+	    }
+	}
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.environment;
+
+/**
+ * Told about each agent as {@link Environment#commitTransitions(TransitionListener)}
+ * changes its type, so the simulation can give it the state its new type needs
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public interface TransitionListener {
+
+    /**
+     * Called after an agent has changed type
+     * @param environment Environment holding the agent
+     * @param slot Slot of the agent in the {@link Environment#getAgentStore() agent store}, which now holds its new type
+     * @param previousType {@link simzombie.engine.AgentType#getUniqueIdentifier() Unique identifier} of its old type
+     */
+    public void agentTransitioned(Environment environment, int slot, int previousType);
+}
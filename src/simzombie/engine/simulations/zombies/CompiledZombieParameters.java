@@ -0,0 +1,180 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package simzombie.engine.simulations.zombies;
+
+import simzombie.engine.utils.CounterRandom;
+
+/**
+ * The parameters the steps of a {@link ZombieSimulation} read, compiled once from
+ * {@link ZombieParameters} into the form the rules use them in
+ *
+ * The parameters can be edited while a simulation runs, and which chances apply depends
+ * on whether awareness has been raised, so the simulation compiles them afresh at the
+ * start of a run and of every step.  Nothing here changes once compiled, so a step can
+ * read it from any thread without the casts and lookups of the parameters themselves.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public final class CompiledZombieParameters {
+
+    /**
+     * Whether awareness was raised when these were compiled
+     */
+    private final boolean aware;
+
+    /**
+     * The rare background events, held as probabilities with the logarithm of their
+     * chance of not happening for {@link CounterRandom#nextGap(double)}
+     */
+    private final double birthChance;
+    private final double birthLogFailure;
+    private final double naturalDeathChance;
+    private final double naturalDeathLogFailure;
+    private final double naturalInfectionChance;
+    private final double naturalInfectionLogFailure;
+
+    /**
+     * The encounter events, held as thresholds for {@link CounterRandom#happens(long)}
+     * using the aware chances when awareness has been raised
+     */
+    private final long winEncounterThreshold;
+    private final long infectionTransmitsThreshold;
+
+    /**
+     * The speeds agents choose from, as the slowest speed and the number of speeds above it.
+     * With a range of 0 every agent moves at the slowest speed.
+     */
+    private final int agentMinSpeed;
+    private final int agentSpeedRange;
+    private final int zombifiedMinSpeed;
+    private final int zombifiedSpeedRange;
+
+    private final int infectionRange;
+    private final int latencyPeriod;
+
+    /**
+     * Compiles the parameters as they currently are
+     * @param parameters Parameters of the simulation
+     */
+    public CompiledZombieParameters(ZombieParameters parameters)
+    {
+	aware = parameters.isAwarenessRaised();
+	birthChance = Math.min(parameters.getChanceOfBirth() / 100, 1);
+	birthLogFailure = Math.log1p(-birthChance);
+	naturalDeathChance = Math.min(parameters.getChanceOfNaturalDeath() / 100, 1);
+	naturalDeathLogFailure = Math.log1p(-naturalDeathChance);
+	naturalInfectionChance = Math.min(parameters.getChanceOfNaturalInfection() / 100, 1);
+	naturalInfectionLogFailure = Math.log1p(-naturalInfectionChance);
+	if (aware)
+	{
+	    winEncounterThreshold = CounterRandom.threshold(parameters.getAwareChanceASusceptibleWinsEncounter() / 100);
+	    infectionTransmitsThreshold = CounterRandom.threshold(parameters.getAwareChanceInfectionTransmits() / 100);
+	}
+	else
+	{
+	    winEncounterThreshold = CounterRandom.threshold(parameters.getChanceASusceptibleWinsEncounter() / 100);
+	    infectionTransmitsThreshold = CounterRandom.threshold(parameters.getChanceInfectionTransmits() / 100);
+	}
+	agentMinSpeed = Math.min(parameters.getAgentMaxSpeed(), parameters.getAgentMinSpeed());
+	agentSpeedRange = Math.abs(parameters.getAgentMaxSpeed() - parameters.getAgentMinSpeed());
+	zombifiedMinSpeed = Math.min(parameters.getZombifiedMaxSpeed(), parameters.getZombifiedMinSpeed());
+	zombifiedSpeedRange = Math.abs(parameters.getZombifiedMaxSpeed() - parameters.getZombifiedMinSpeed());
+	infectionRange = parameters.getInfectionRange();
+	latencyPeriod = parameters.getLatencyPeriod();
+    }
+
+    public boolean isAware()
+    {
+	return aware;
+    }
+
+    public double getBirthChance()
+    {
+	return birthChance;
+    }
+
+    public double getBirthLogFailure()
+    {
+	return birthLogFailure;
+    }
+
+    public double getNaturalDeathChance()
+    {
+	return naturalDeathChance;
+    }
+
+    public double getNaturalDeathLogFailure()
+    {
+	return naturalDeathLogFailure;
+    }
+
+    public double getNaturalInfectionChance()
+    {
+	return naturalInfectionChance;
+    }
+
+    public double getNaturalInfectionLogFailure()
+    {
+	return naturalInfectionLogFailure;
+    }
+
+    public long getWinEncounterThreshold()
+    {
+	return winEncounterThreshold;
+    }
+
+    public long getInfectionTransmitsThreshold()
+    {
+	return infectionTransmitsThreshold;
+    }
+
+    public int getAgentMinSpeed()
+    {
+	return agentMinSpeed;
+    }
+
+    public int getAgentSpeedRange()
+    {
+	return agentSpeedRange;
+    }
+
+    public int getZombifiedMinSpeed()
+    {
+	return zombifiedMinSpeed;
+    }
+
+    public int getZombifiedSpeedRange()
+    {
+	return zombifiedSpeedRange;
+    }
+
+    public int getInfectionRange()
+    {
+	return infectionRange;
+    }
+
+    public int getLatencyPeriod()
+    {
+	return latencyPeriod;
+    }
+}
@@ -22,22 +22,27 @@
 
 package simzombie.engine.simulations.zombies;
 
+import simzombie.engine.environment.AgentStore;
+import simzombie.engine.environment.AgentVisitor;
 import simzombie.engine.environment.Environment;
+import simzombie.engine.environment.TransitionListener;
 import simzombie.engine.Parameters;
-import simzombie.engine.Agent;
 import simzombie.engine.AgentType;
 import simzombie.engine.graph.Graph;
 import simzombie.engine.graph.Plot;
-import simzombie.engine.simulations.zombies.agents.Infected;
-import simzombie.engine.simulations.zombies.agents.Removed;
-import simzombie.engine.simulations.zombies.agents.Susceptible;
-import simzombie.engine.simulations.zombies.agents.Zombified;
+import simzombie.engine.simulations.zombies.agents.ZombieAgentFactory;
 import simzombie.engine.simulations.Simulation;
-import simzombie.engine.utils.Helpers;
+import simzombie.engine.utils.AgentCounter;
+import simzombie.engine.utils.CounterRandom;
+import simzombie.engine.utils.IntList;
+import simzombie.engine.utils.TimingWheel;
 import java.awt.Color;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Implements the Zombie Simulation
@@ -75,6 +80,14 @@ public class ZombieSimulation implements Simulation {
      */
     private final static AgentType[] agentTypes = { SUSCEPTIBLE, INFECTED, ZOMBIFIED, REMOVED };
 
+    /**
+     * Unique identifiers of the agent types, as held in the {@link AgentStore}
+     */
+    private final static int SUSCEPTIBLE_ID = SUSCEPTIBLE.getUniqueIdentifier();
+    private final static int INFECTED_ID = INFECTED.getUniqueIdentifier();
+    private final static int ZOMBIFIED_ID = ZOMBIFIED.getUniqueIdentifier();
+    private final static int REMOVED_ID = REMOVED.getUniqueIdentifier();
+
     /**
      * Parameters for this simulation.
      * It is common for a simulation to have unique parameters extending from the parameters
@@ -83,7 +96,8 @@ public class ZombieSimulation implements Simulation {
     private ZombieParameters parameters;
 
     /**
-     * Our core instantiation of Random, to be used for generating random numbers wherever possible
+     * Our core instantiation of Random, handed to the Agent objects created from the environment.
+     * It is seeded from the seed of the run; the steps themselves draw from {@link CounterRandom}s.
      */
     private Random random = new Random();
 
@@ -102,6 +116,7 @@ public class ZombieSimulation implements Simulation {
     @Override
     public void reset()
     {
+	replicate++;
         configureEnvironment(parameters.getEnvironment());
     }
 
@@ -136,284 +151,1080 @@ public class ZombieSimulation implements Simulation {
     @Override
     public void configureEnvironment(Environment environment)
     {
+	seed = CounterRandom.split(parameters.getSeed(), replicate);
+	simStep = 0;
+	random.setSeed(seed);
+	compiled = new CompiledZombieParameters(parameters);
+	latencyWheel.reset(simStep);
         environment.removeAllAgents();
+	environment.setOffHeap(parameters.isOffHeapStorage());
+        environment.compileWalls();
+	environment.setAgentFactory(new ZombieAgentFactory(parameters, random));
+	environment.getAgentStore().ensureCapacity(parameters.getPopulation());
 	for (int i = 0; i < parameters.getPopulation() - parameters.getInitialInfected() - parameters.getInitialZombified(); i++)
         {
-            environment.addAgent(new Susceptible(null, parameters, random));
+	    addNewAgent(environment, SUSCEPTIBLE_ID);
         }
         for (int i = 0; i < parameters.getInitialInfected(); i++)
         {
-            environment.addAgent(new Infected(null, parameters, random));
+	    addNewAgent(environment, INFECTED_ID);
         }
         for (int i = 0; i < parameters.getInitialZombified(); i++)
         {
-            environment.addAgent(new Zombified(null, parameters, random));
+	    addNewAgent(environment, ZOMBIFIED_ID);
         }
     }
 
     /**
-     * Helper function that 'rolls the dice' on probabilities
-     * @param chance Chance an event should happen
-     * @return True if that event should happen, false if not
+     * Adds a new agent at a random location
+     * @param environment Environment to add the agent to
+     * @param type Unique identifier of the agent's type
+     */
+    private void addNewAgent(Environment environment, int type)
+    {
+	stepRandom.reset(seed, -1, environment.getAgentStore().size(), PLACEMENT_STREAM);
+	int x = stepRandom.nextInt(parameters.getEnvironmentWidth());
+	int y = stepRandom.nextInt(parameters.getEnvironmentHeight());
+	// agents added while configuring are set up before the first step
+	addAgent(environment, AgentCounter.getAgentId(), type, x, y, simStep - 1);
+    }
+
+    /**
+     * Adds an agent, giving it the starting state for its type
+     * @param environment Environment to add the agent to
+     * @param id Unique id of the agent
+     * @param type Unique identifier of the agent's type
+     * @param x Horizontal location, in pixels
+     * @param y Vertical location, in pixels
+     * @param step Step at the end of which the agent is added
+     */
+    private void addAgent(Environment environment, int id, int type, int x, int y, int step)
+    {
+	int slot = environment.addAgent(id, type, x, y, 0, 0, 0, 0, 0);
+	// not SETUP_STREAM, which an agent in the same slot changing type this step draws from
+	stepRandom.reset(seed, simStep, slot, ADDITION_STREAM);
+	initialiseAgent(environment, slot, 0, step, stepRandom);
+    }
+
+    /**
+     * Gives an agent the starting state for its type, when it is added or changes type
+     *
+     * Infected agents start their latency period, and (as they always have) stand
+     * still until they next acquire new directions.  Everything else sets off in
+     * a random direction.  Agents which never move - Removed, and Infected risen from
+     * the Removed - are made dormant and the tiles never visit them; anything that can
+     * still happen to them finds them through their type or the latency wheel.
+     * @param environment Environment holding the agent
+     * @param slot Slot of the agent
+     * @param previousType Unique identifier of the type the agent had before, or 0 for a new agent
+     * @param step Step at the end of which the agent is set up
+     * @param random Random numbers for the agent
      */
-    private boolean shouldHappen(double chance)
+    private void initialiseAgent(Environment environment, int slot, int previousType, int step, CounterRandom random)
     {
-	if (chance > 1)
+	AgentStore agents = environment.getAgentStore();
+	int type = agents.getType(slot);
+	boolean immobile;
+	agents.setLatency(slot, 0);
+	if (type == INFECTED_ID)
 	{
-	    int number = random.nextInt(101);
+	    agents.setLatency(slot, compiled.getLatencyPeriod());
+	    scheduleLatency(slot, step + Math.max(1, compiled.getLatencyPeriod()));
+	    // an Infected created from a Removed is unable to move
+	    immobile = previousType == REMOVED_ID;
+	    agents.setImmobile(slot, immobile);
+	    agents.setDx(slot, 0);
+	    agents.setDy(slot, 0);
+	}
+	else
+	{
+	    immobile = type == REMOVED_ID;
+	    agents.setImmobile(slot, immobile);
+	    acquireNewDirections(agents, slot, random);
+	}
+	environment.setAgentDormant(slot, immobile);
+    }
 
-	    if (number <= chance)
-	    {
-		return true;
-	    }
-	    return false;
+    /**
+     * Infected agents waiting for their latency period to run out, by the step it runs out at
+     */
+    private final TimingWheel latencyWheel = new TimingWheel();
+
+    /**
+     * The step each Infected agent's latency period runs out at, indexed by slot.  An agent
+     * can be scheduled more than once (if it dies and rises again), so entries taken from
+     * the wheel are checked against this.
+     */
+    private int[] latencyDue = new int[0];
+
+    /**
+     * Infected agents taken from the wheel this step
+     */
+    private final IntList latencyExpired = new IntList();
+
+    /**
+     * Schedules an Infected agent to become Zombified
+     * @param slot Slot of the agent
+     * @param step Step its latency period runs out at
+     */
+    private void scheduleLatency(int slot, int step)
+    {
+	if (slot >= latencyDue.length)
+	{
+	    latencyDue = Arrays.copyOf(latencyDue, Math.max(slot + 1, latencyDue.length * 2));
+	}
+	latencyDue[slot] = step;
+	latencyWheel.schedule(slot, step);
+    }
+
+    /**
+     * Sets up each agent for its new type as the step's transitions are committed
+     */
+    private final TransitionListener transitionListener = new TransitionListener()
+    {
+	public void agentTransitioned(Environment environment, int slot, int previousType)
+	{
+	    stepRandom.reset(seed, simStep, slot, SETUP_STREAM);
+	    initialiseAgent(environment, slot, previousType, simStep, stepRandom);
+	}
+    };
+
+    /**
+     * Randomly change the direction of an agent, according to its type
+     * @param agents Store holding the agent
+     * @param slot Slot of the agent
+     * @param random Random numbers for the agent
+     */
+    private void acquireNewDirections(AgentStore agents, int slot, CounterRandom random)
+    {
+	int type = agents.getType(slot);
+	if (type == REMOVED_ID || agents.hasFlag(slot, AgentStore.IMMOBILE))
+	{
+	    agents.setDx(slot, 0);
+	    agents.setDy(slot, 0);
+	}
+	else if (type == ZOMBIFIED_ID)
+	{
+	    acquireNewDirections(agents, slot, compiled.getZombifiedMinSpeed(), compiled.getZombifiedSpeedRange(), random);
 	}
 	else
 	{
-	    // we round this for a small (acceptable) loss of precision!
-	    int number = random.nextInt((int)(100 / chance));
-	    if (number == 0)
-	    {
-		return true;
-	    }
-	    else
-	    {
-		return false;
-	    }
+	    acquireNewDirections(agents, slot, compiled.getAgentMinSpeed(), compiled.getAgentSpeedRange(), random);
 	}
     }
 
+    /**
+     * Gives an agent a random speed within a range, in a random direction
+     * @param agents Store holding the agent
+     * @param slot Slot of the agent
+     * @param minSpeed The slowest speed
+     * @param speedRange Number of speeds to choose from above the slowest, or 0 to always use the slowest
+     * @param random Random numbers for the agent
+     */
+    private void acquireNewDirections(AgentStore agents, int slot, int minSpeed, int speedRange, CounterRandom random)
+    {
+	int dx;
+	int dy;
+	if (speedRange == 0)
+	{
+	    dx = minSpeed;
+	    dy = minSpeed;
+	}
+	else
+	{
+	    dx = random.nextInt(speedRange) + minSpeed;
+	    dy = random.nextInt(speedRange) + minSpeed;
+	}
+
+	switch (random.nextInt(4))
+	{
+	    case(0): break;
+	    case(1): dx = -dx; break;
+	    case(2): dy = -dy; break;
+	    case(3): dx = -dx; dy = -dy; break;
+	}
+	agents.setDx(slot, dx);
+	agents.setDy(slot, dy);
+    }
+
+    /**
+     * The parameters as the rules read them, compiled at the start of a run and of every step
+     */
+    private CompiledZombieParameters compiled;
+
     /**
      * Keeps track of the current step of the simulation
      */
     private int simStep = 0;
 
-    @Override
-    public boolean updateEnvironment(Environment environment)
+    /**
+     * Number of times the simulation has been reset, each reset starting a new repeat
+     */
+    private int replicate = 0;
+
+    /**
+     * Seed of the current repeat, split from the {@link Parameters#getSeed() master seed},
+     * which every random decision made by the simulation is derived from
+     */
+    private long seed;
+
+    /**
+     * Streams of random numbers each agent draws from, see {@link CounterRandom#reset(long, int, int, int)}
+     */
+    private final static int PLACEMENT_STREAM = 0;
+    private final static int SETUP_STREAM = 1;
+    private final static int MOVEMENT_STREAM = 2;
+    private final static int BACKGROUND_STREAM = 3;
+    private final static int ENCOUNTER_STREAM = 4;
+    private final static int ADDITION_STREAM = 5;
+
+    /**
+     * Random numbers for the parts of a step that run on the simulation's own thread
+     */
+    private final CounterRandom stepRandom = new CounterRandom();
+
+    /**
+     * Number of cells along each side of a tile.  Tiles are the unit of work handed to
+     * each thread, so this is fixed rather than worked out from the number of threads,
+     * which keeps the results the same whatever the number of threads.
+     */
+    private final static int TILE_SIZE = 8;
+
+    /**
+     * Tiles covering the cells of the environment, in row-major order
+     */
+    private Tile[] tiles = new Tile[0];
+    private int tiledCellsWide = 0;
+    private int tiledCellsHigh = 0;
+
+    /**
+     * Pools running the tiles when more than one thread is used, by number of threads.
+     *
+     * Shared by every simulation, so simulations stepped at the same time by the workers
+     * of {@link simzombie.engine.SimZombie} share the pool's threads rather than each
+     * starting their own, and nothing is left running when a simulation is closed.
+     * The threads are daemons, and idle ones are retired by the pool.
+     */
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+    /**
+     * Gets the shared pool with a number of threads, starting it the first time it is needed
+     * @param threads Number of threads
+     * @return The pool
+     */
+    private static ForkJoinPool getPool(int threads)
+    {
+	synchronized(pools)
+	{
+	    ForkJoinPool pool = pools.get(threads);
+	    if (pool == null)
+	    {
+		pool = new ForkJoinPool(threads);
+		pools.put(threads, pool);
+	    }
+	    return pool;
+	}
+    }
+
+    /**
+     * Holds, for each slot, the stamp of the last step its agent was involved in something.
+     *
+     * An agent involved in something this step takes no further part in it.  Stamps are
+     * used rather than a BitSet as the tiles mark agents from several threads at once,
+     * and neighbouring bits of a BitSet share a word.
+     */
+    private int[] occupied = new int[0];
+    private int occupiedStamp = 0;
+
+    private boolean isOccupied(int slot)
     {
-	Set<Integer> agentOccupied = new HashSet<Integer> ();
-	Set<Agent> toInfect = new HashSet<Agent>();
-	Set<Agent> toZombify = new HashSet<Agent>();
-	Set<Agent> toRemove = new HashSet<Agent>();
-	Set<Agent> toIntroduce = new HashSet<Agent>();
+	return occupied[slot] == occupiedStamp;
+    }
 
-        int numberSusceptible = 0;
-        int numberZombified = 0;
-        int numberInfected = 0;
-        int numberRemoved = 0;
+    private void occupy(int slot)
+    {
+	occupied[slot] = occupiedStamp;
+    }
 
-	int stepsPerHalfDay = 2;
-        int dayOrNight = simStep / stepsPerHalfDay % 2;
-        if (dayOrNight == 0) parameters.setTimeOfDay(Parameters.TimeOfDay.DAY);
-        else if (dayOrNight == 1) parameters.setTimeOfDay(Parameters.TimeOfDay.NIGHT);
+    /**
+     * A rectangle of cells whose agents are stepped together, on one thread
+     *
+     * Tiles run twice each step.  While deciding the step (see {@link #decide(Environment, boolean)})
+     * every tile applies the rules to its agents.  A zombie whose reach stays inside its
+     * tile resolves its encounters there and then; one that can reach into another tile
+     * is held back for the simulation's own thread, which deals with the held back zombies
+     * tile by tile.  While committing the step, every tile moves its agents; those leaving
+     * the tile are held back and handed to their new cells by the simulation's own thread.
+     * While the tiles run on different threads, each only changes the agents in its own cells.
+     */
+    private class Tile
+    {
+	private final int firstColumn;
+	private final int lastColumn;
+	private final int firstRow;
+	private final int lastRow;
 
-        int lunarPhase = (simStep/(stepsPerHalfDay*2)) % 28;
-        parameters.setCurrentLunarPhase(lunarPhase);
+	/**
+	 * Slots of the agents in the tile, gathered at the start of each phase
+	 */
+	private final IntList members = new IntList();
 
-        boolean monsterActive = false;
-        if (parameters.getTimeOfDay() == Parameters.TimeOfDay.DAY
-                && parameters.isMonsterActiveDuringDay())
-        {
-            monsterActive = true;
-        }
-        if (parameters.getTimeOfDay() == Parameters.TimeOfDay.NIGHT
-                && parameters.isMonsterActiveDuringNight())
-        {
-            if (parameters.activeDuringLunarPhase(lunarPhase))
-            {
-                monsterActive = true;
-            }
-        }
+	/**
+	 * Agents which have moved out of the tile, and the cells they moved to
+	 */
+	private final IntList migrants = new IntList();
+	private final IntList destinations = new IntList();
+
+	/**
+	 * Zombies whose encounters could reach outside the tile
+	 */
+	private final IntList borderZombies = new IntList();
+
+	/**
+	 * Agents which move this step, with the cells they start in, the positions they
+	 * head for and the cells they end up in, for {@link #moveInBatch(Environment)}
+	 */
+	private int[] movers = new int[0];
+	private int[] moverCells = new int[0];
+	private int[] nextXs = new int[0];
+	private int[] nextYs = new int[0];
+	private int[] moverDestinations = new int[0];
+
+	/**
+	 * Agents which change direction after moving this step
+	 */
+	private final IntList turners = new IntList();
+
+	/**
+	 * Transitions queued by this tile, as slots and unique identifiers of the new types
+	 */
+	private final IntList transitionSlots = new IntList();
+	private final IntList transitionTypes = new IntList();
+
+	private final CounterRandom random = new CounterRandom();
+	private final Encounter encounter = new Encounter(this);
+
+	private Tile(int firstColumn, int lastColumn, int firstRow, int lastRow)
+	{
+	    this.firstColumn = firstColumn;
+	    this.lastColumn = lastColumn;
+	    this.firstRow = firstRow;
+	    this.lastRow = lastRow;
+	}
+
+	private boolean contains(int column, int row)
+	{
+	    return column >= firstColumn && column <= lastColumn && row >= firstRow && row <= lastRow;
+	}
 
-	synchronized(environment.getAgents())
+	/**
+	 * Collects the slots of the active agents currently in the tile.  Dormant agents
+	 * are left out, as nothing the tiles do applies to them.
+	 */
+	private void gather(Environment environment)
 	{
-	    for (Agent a : environment.getAgents())
+	    members.clear();
+	    for (int j = firstRow; j <= lastRow; j++)
 	    {
-		environment.attemptToMoveAgent(a);
-		switch(random.nextInt(20))
+		for (int i = firstColumn; i <= lastColumn; i++)
 		{
-		    case(0) : a.acquireNewDirections();
+		    int cell = environment.getCellIndex(i, j);
+		    for (int slot = environment.getFirstAgentInCell(cell); slot != AgentStore.NONE; slot = environment.getNextAgentInCell(slot))
+		    {
+			members.add(slot);
+		    }
 		}
+	    }
+	}
 
-		if (a.isOfType(SUSCEPTIBLE))
+	/**
+	 * Moves the agents in the tile, holding back those that leave it
+	 */
+	private void move(Environment environment)
+	{
+	    AgentStore agents = environment.getAgentStore();
+	    int cellsWide = environment.getCellsWide();
+	    gather(environment);
+	    migrants.clear();
+	    destinations.clear();
+	    if (environment.isBatchMovementAvailable())
+	    {
+		moveInBatch(environment);
+		return;
+	    }
+	    for (int i = 0; i < members.size(); i++)
+	    {
+		int a = members.get(i);
+		int type = agents.getType(a);
+		random.reset(seed, simStep, a, MOVEMENT_STREAM);
+		// occasionally a Susceptible doesn't move, for a little more free will
+		if (!agents.hasFlag(a, AgentStore.IMMOBILE) && (type != SUSCEPTIBLE_ID || random.nextInt(10) != 0))
 		{
-                    numberSusceptible++;
-		    // this represents births
-		    if (parameters.getChanceOfBirth() > 0 && !agentOccupied.contains(a.getId()))
+		    int from = agents.getCell(a);
+		    int to = environment.advanceAgent(a);
+		    if (to != from)
 		    {
-			if (shouldHappen(parameters.getChanceOfBirth()))
+			environment.unlinkAgentFromCell(a);
+			if (contains(to % cellsWide, to / cellsWide))
 			{
-			    toIntroduce.add(a);
-			    agentOccupied.add(a.getId());
+			    environment.linkAgentToCell(a, to);
 			}
-		    }
-
-		    // this represents people dying
-		    if (parameters.getChanceOfNaturalDeath() > 0 && !agentOccupied.contains(a.getId()))
-		    {
-			if (shouldHappen(parameters.getChanceOfNaturalDeath()))
+			else
 			{
-			    toRemove.add(a);
-			    agentOccupied.add(a.getId());
+			    migrants.add(a);
+			    destinations.add(to);
 			}
 		    }
 		}
-		else if (a.isOfType(INFECTED))
+		switch(random.nextInt(20))
+		{
+		    case(0) : acquireNewDirections(agents, a, random);
+		}
+	    }
+	}
+
+	/**
+	 * Moves the agents in the tile as {@link #move(Environment)} does, with the same
+	 * random draws and results, but with the positions of all the agents which move
+	 * worked out together by {@link Environment#advanceAgents(int[], int, int[], int[], int[])}
+	 */
+	private void moveInBatch(Environment environment)
+	{
+	    AgentStore agents = environment.getAgentStore();
+	    int cellsWide = environment.getCellsWide();
+	    int size = members.size();
+	    if (movers.length < size)
+	    {
+		movers = new int[size];
+		moverCells = new int[size];
+		nextXs = new int[size];
+		nextYs = new int[size];
+		moverDestinations = new int[size];
+	    }
+	    turners.clear();
+	    int count = 0;
+	    for (int i = 0; i < size; i++)
+	    {
+		int a = members.get(i);
+		random.reset(seed, simStep, a, MOVEMENT_STREAM);
+		if (isMoving(agents, a))
+		{
+		    movers[count] = a;
+		    moverCells[count] = agents.getCell(a);
+		    count++;
+		}
+		if (random.nextInt(20) == 0)
 		{
-                    numberInfected ++;
-		    Infected i = (Infected) a;
-		    if (i.latencyPeriodElapsed() && !agentOccupied.contains(i.getId()))
+		    turners.add(a);
+		}
+	    }
+	    environment.advanceAgents(movers, count, nextXs, nextYs, moverDestinations);
+	    for (int i = 0; i < count; i++)
+	    {
+		int to = moverDestinations[i];
+		if (to != moverCells[i])
+		{
+		    environment.unlinkAgentFromCell(movers[i]);
+		    if (contains(to % cellsWide, to / cellsWide))
 		    {
-			toZombify.add(i);
-			agentOccupied.add(i.getId());
+			environment.linkAgentToCell(movers[i], to);
 		    }
+		    else
+		    {
+			migrants.add(movers[i]);
+			destinations.add(to);
+		    }
+		}
+	    }
+	    // a new direction only matters for the agent's next move, so can wait until now
+	    for (int i = 0; i < turners.size(); i++)
+	    {
+		int a = turners.get(i);
+		random.reset(seed, simStep, a, MOVEMENT_STREAM);
+		isMoving(agents, a);
+		random.nextInt(20);
+		acquireNewDirections(agents, a, random);
+	    }
+	}
+
+	/**
+	 * Whether an agent moves this step, taking the draw for a Susceptible which stays put
+	 * from the random numbers, which must already be reset for the agent
+	 */
+	private boolean isMoving(AgentStore agents, int a)
+	{
+	    // occasionally a Susceptible doesn't move, for a little more free will
+	    return !agents.hasFlag(a, AgentStore.IMMOBILE)
+		    && (agents.getType(a) != SUSCEPTIBLE_ID || random.nextInt(10) != 0);
+	}
 
-		    if (parameters.getChanceOfNaturalDeath() > 0 && !agentOccupied.contains(i.getId()))
+	/**
+	 * Hands the agents which left the tile to their new cells
+	 */
+	private void exchange(Environment environment)
+	{
+	    for (int i = 0; i < migrants.size(); i++)
+	    {
+		environment.linkAgentToCell(migrants.get(i), destinations.get(i));
+	    }
+	}
+
+	/**
+	 * Applies the rules of the simulation to the agents in the tile, apart from the
+	 * background events dealt with by {@link #sampleBackgroundEvents(Environment)}
+	 *
+	 * Only zombies have anything left to do, and only when there are susceptibles within
+	 * their reach, so the environment's count of each type in each cell is used to skip
+	 * every other cell without walking its agents.
+	 */
+	private void applyRules(Environment environment, boolean monsterActive)
+	{
+	    AgentStore agents = environment.getAgentStore();
+	    borderZombies.clear();
+	    transitionSlots.clear();
+	    transitionTypes.clear();
+	    for (int j = firstRow; j <= lastRow; j++)
+	    {
+		for (int i = firstColumn; i <= lastColumn; i++)
+		{
+		    int cell = environment.getCellIndex(i, j);
+		    if (!monsterActive || environment.getAgentCountInCell(cell, ZOMBIFIED) == 0
+			    || !isSusceptibleWithinReach(environment, i, j))
+		    {
+			continue;
+		    }
+		    for (int a = environment.getFirstAgentInCell(cell); a != AgentStore.NONE; a = environment.getNextAgentInCell(a))
 		    {
-			if (shouldHappen(parameters.getChanceOfNaturalDeath()))
+			if (agents.getType(a) == ZOMBIFIED_ID && !isOccupied(a))
 			{
-			    toRemove.add(i);
-			    agentOccupied.add(i.getId());
+			    if (reachesOutside(environment, agents.getX(a), agents.getY(a)))
+			    {
+				borderZombies.add(a);
+			    }
+			    else
+			    {
+				encounter(environment, a);
+			    }
 			}
 		    }
 		}
-		else if (a.isOfType(ZOMBIFIED))
+	    }
+	}
+
+	/**
+	 * Whether there are any susceptibles in the cells a zombie anywhere in a cell could search
+	 * @param environment Environment holding the agents
+	 * @param column Column of the zombie's cell
+	 * @param row Row of the zombie's cell
+	 */
+	private boolean isSusceptibleWithinReach(Environment environment, int column, int row)
+	{
+	    int radius = compiled.getInfectionRange();
+	    int cellWidth = environment.getCellWidth();
+	    int cellHeight = environment.getCellHeight();
+	    int firstReachedColumn = Math.max(0, column * cellWidth - radius) / cellWidth;
+	    int lastReachedColumn = Math.min(environment.getCellsWide() - 1, ((column + 1) * cellWidth - 1 + radius) / cellWidth);
+	    int firstReachedRow = Math.max(0, row * cellHeight - radius) / cellHeight;
+	    int lastReachedRow = Math.min(environment.getCellsHigh() - 1, ((row + 1) * cellHeight - 1 + radius) / cellHeight);
+	    for (int j = firstReachedRow; j <= lastReachedRow; j++)
+	    {
+		for (int i = firstReachedColumn; i <= lastReachedColumn; i++)
 		{
-                    numberZombified ++;
-//                    float chanceToReproduce = 0.75f;
-//                    float chanceToAttack = 0.75f;
-//
-//                    if (shouldHappen(chanceToReproduce))
-//                    {
-//                        agentOccupied.add(a.getId());
-//                        Agent i = new Zombified(a, parameters, random);
-//                        i.acquireNewDirections();
-//                        toIntroduce.add(i);
-//                    }
-//                    else if (shouldHappen(chanceToAttack))
-//                    {
-		    if (monsterActive)
+		    if (environment.getAgentCountInCell(environment.getCellIndex(i, j), SUSCEPTIBLE) > 0)
 		    {
-                        boolean attacked = false;
-//			System.out.println("---Monster " + a.getId() + "---");
-                        for (Agent a2 : environment.getAgentsByCell(a.getCellReference()))
-                        {
-//			    System.out.println("Investigating Agent " + a2.getId() + ", attacked is " + attacked);
-//                            if (!attacked && (a2.isOfType(SUSCEPTIBLE) || (a2.isOfType(REMOVED) && parameters.canRemovedBecomeZombies()))  && !agentOccupied.contains(a2.getId()) && !agentOccupied.contains(a.getId()) && !a.equals(a2))
-                            if (!attacked && a2.isOfType(SUSCEPTIBLE) && !agentOccupied.contains(a2.getId()) && !agentOccupied.contains(a.getId()) && !a.equals(a2))
-                            {
-//				System.out.println("Monster " + a.getId() + " attacking!");
-                                if (Helpers.distanceBetween(a, a2) < Math.pow(parameters.getInfectionRange(), 2))
-                                {
-                                    boolean zombieWon = false;
-                                    double chanceWinEncounter = parameters.getChanceASusceptibleWinsEncounter();
-                                    if (parameters.isAwarenessRaised())
-                                    {
-                                        chanceWinEncounter = parameters.getAwareChanceASusceptibleWinsEncounter();
-                                    }
-                                    if (chanceWinEncounter > 0 && !a2.isOfType(REMOVED))
-                                    {
-                                        attacked = true;
-                                        if (shouldHappen(chanceWinEncounter))
-                                        {
-                                            toRemove.add(a);
-                                            agentOccupied.add(a.getId());
-                                            zombieWon = false;
-                                        }
-                                        else
-                                        {
-                                            zombieWon = true;
-                                        }
-                                    }
-                                    else
-                                    {
-                                        zombieWon = true;
-                                    }
-
-                                    if (zombieWon)
-                                    {
-                                        double infectionTransmitChance = parameters.getChanceInfectionTransmits();
-                                        if (parameters.isAwarenessRaised())
-                                        {
-                                            infectionTransmitChance = parameters.getAwareChanceInfectionTransmits();
-                                        }
-                                        if (shouldHappen(infectionTransmitChance))
-                                        {
-                                            if (parameters.getLatencyPeriod() == 0)
-                                            {
-                                                toZombify.add(a2);
-                                            }
-                                            else
-                                            {
-                                                toInfect.add(a2);
-                                            }
-                                        }
-                                        else
-                                        {
-                                            toRemove.add(a2);
-                                        }
-                                        agentOccupied.add(a2.getId());
-                                    }
-                                }
-//                            }
-			    }
-                        }
+			return true;
 		    }
 		}
-		else if (a.isOfType(REMOVED))
+	    }
+	    return false;
+	}
+
+	/**
+	 * Resolves the encounters of the zombies held back by {@link #applyRules(Environment, boolean)}
+	 */
+	private void resolveBorder(Environment environment)
+	{
+	    for (int i = 0; i < borderZombies.size(); i++)
+	    {
+		int a = borderZombies.get(i);
+		if (!isOccupied(a))
 		{
-                    numberRemoved ++;
-		    if (parameters.getChanceOfNaturalInfection() > 0)
+		    encounter(environment, a);
+		}
+	    }
+	}
+
+	/**
+	 * Whether the cells searched for a zombie's victims include any outside the tile,
+	 * worked out as {@link Environment#forEachAgentWithin(int, int, int, AgentType, AgentVisitor)} does
+	 */
+	private boolean reachesOutside(Environment environment, int x, int y)
+	{
+	    int radius = compiled.getInfectionRange();
+	    return Math.max(0, x - radius) / environment.getCellWidth() < firstColumn
+		    || Math.min(environment.getCellsWide() - 1, (x + radius) / environment.getCellWidth()) > lastColumn
+		    || Math.max(0, y - radius) / environment.getCellHeight() < firstRow
+		    || Math.min(environment.getCellsHigh() - 1, (y + radius) / environment.getCellHeight()) > lastRow;
+	}
+
+	private void encounter(Environment environment, int zombie)
+	{
+	    AgentStore agents = environment.getAgentStore();
+	    random.reset(seed, simStep, zombie, ENCOUNTER_STREAM);
+	    encounter.reset(zombie);
+	    environment.forEachAgentWithin(agents.getX(zombie), agents.getY(zombie), compiled.getInfectionRange(), SUSCEPTIBLE, encounter);
+	}
+
+	/**
+	 * Queues a transition, to be passed to the environment in tile order, and marks the agent as occupied
+	 */
+	private void queueTransition(int slot, int type)
+	{
+	    transitionSlots.add(slot);
+	    transitionTypes.add(type);
+	    occupy(slot);
+	}
+    }
+
+    /**
+     * Resolves the encounters of a single zombie with the susceptibles in range
+     *
+     * A zombie keeps looking until it has fought someone (which only happens if
+     * susceptibles can win), or it has been removed.
+     */
+    private class Encounter implements AgentVisitor
+    {
+	/**
+	 * Tile the zombie's encounters are queued on
+	 */
+	private final Tile tile;
+
+	/**
+	 * Slot of the zombie
+	 */
+	private int zombie;
+
+	/**
+	 * Whether the zombie has fought someone yet
+	 */
+	private boolean attacked;
+
+	private Encounter(Tile tile)
+	{
+	    this.tile = tile;
+	}
+
+	/**
+	 * Prepares the encounter for a zombie
+	 * @param zombie Slot of the zombie
+	 */
+	private void reset(int zombie)
+	{
+	    this.zombie = zombie;
+	    attacked = false;
+	}
+
+	public boolean visit(int a2)
+	{
+	    if (isOccupied(a2))
+	    {
+		return true;
+	    }
+	    boolean zombieWon = false;
+	    if (compiled.getWinEncounterThreshold() > 0)
+	    {
+		attacked = true;
+		if (tile.random.happens(compiled.getWinEncounterThreshold()))
+		{
+		    tile.queueTransition(zombie, REMOVED_ID);
+		    zombieWon = false;
+		}
+		else
+		{
+		    zombieWon = true;
+		}
+	    }
+	    else
+	    {
+		zombieWon = true;
+	    }
+
+	    if (zombieWon)
+	    {
+		if (tile.random.happens(compiled.getInfectionTransmitsThreshold()))
+		{
+		    if (compiled.getLatencyPeriod() == 0)
 		    {
-			if (!agentOccupied.contains(a.getId()))
-			{
-			    if (shouldHappen(parameters.getChanceOfNaturalInfection()))
-			    {
-				    toInfect.add(a);
-				    agentOccupied.add(a.getId());
-			    }
-			}
+			tile.queueTransition(a2, ZOMBIFIED_ID);
 		    }
+		    else
+		    {
+			tile.queueTransition(a2, INFECTED_ID);
+		    }
+		}
+		else
+		{
+		    tile.queueTransition(a2, REMOVED_ID);
 		}
 	    }
+	    return !attacked && !isOccupied(zombie);
 	}
+    }
 
-        int totalPopulation = numberSusceptible + numberRemoved + numberZombified + numberInfected;
-        int totalPopulationAffected = numberRemoved + numberZombified + numberInfected;
-        double percentageAffected = 100*(double) totalPopulationAffected / (double) totalPopulation;
-        if (!parameters.isAwarenessRaised() && percentageAffected > parameters.getAwarenessRaisedAt())
-        {
-            parameters.setAwarenessRaised(true);
-        }
+    /**
+     * Runs one phase of the step over a range of tiles, splitting the range between threads
+     */
+    private class TileTask extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
 
-	for (Agent i : toInfect)
+	private final int from;
+	private final int to;
+	private final Environment environment;
+	private final boolean moving;
+	private final boolean monsterActive;
+
+	private TileTask(int from, int to, Environment environment, boolean moving, boolean monsterActive)
 	{
-	    environment.removeAgent(i);
-	    Agent a = new Infected(i, parameters, random);
-	    environment.addAgent(a);
+	    this.from = from;
+	    this.to = to;
+	    this.environment = environment;
+	    this.moving = moving;
+	    this.monsterActive = monsterActive;
 	}
-	for (Agent z : toZombify)
+
+	@Override
+	protected void compute()
 	{
-	    environment.removeAgent(z);
-	    Agent a = new Zombified(z, parameters, random);
-	    environment.addAgent(a);
+	    if (to - from == 1)
+	    {
+		if (moving)
+		{
+		    tiles[from].move(environment);
+		}
+		else
+		{
+		    tiles[from].applyRules(environment, monsterActive);
+		}
+	    }
+	    else
+	    {
+		int middle = (from + to) >>> 1;
+		invokeAll(new TileTask(from, middle, environment, moving, monsterActive),
+			new TileTask(middle, to, environment, moving, monsterActive));
+	    }
 	}
-	for (Agent r : toRemove)
+    }
+
+    /**
+     * Runs one phase of the step over every tile, on the pool or, with one thread, in tile order
+     */
+    private void runTiles(Environment environment, boolean moving, boolean monsterActive)
+    {
+	int threads = Math.max(1, parameters.getThreads());
+	if (threads == 1 || tiles.length == 1)
 	{
-	    environment.removeAgent(r);
-	    Agent a = new Removed(r, parameters, random);
-	    environment.addAgent(a);
+	    for (Tile tile : tiles)
+	    {
+		if (moving)
+		{
+		    tile.move(environment);
+		}
+		else
+		{
+		    tile.applyRules(environment, monsterActive);
+		}
+	    }
+	    return;
 	}
-	for (Agent i: toIntroduce)
+	getPool(threads).invoke(new TileTask(0, tiles.length, environment, moving, monsterActive));
+    }
+
+    /**
+     * Slots of the agents giving birth at the end of this step
+     */
+    private final IntList toIntroduce = new IntList();
+
+    /**
+     * Slots of the agents a background event happens to, see {@link #sampleEvent(Environment, AgentType, double, double, int)}
+     */
+    private final IntList sampled = new IntList();
+
+    /**
+     * Transitions queued by the background events, as slots and unique identifiers of the new types
+     */
+    private final IntList backgroundSlots = new IntList();
+    private final IntList backgroundTypes = new IntList();
+
+    /**
+     * Decides which agents a rare event happens to this step, visiting only those agents
+     *
+     * Rather than rolling the dice for every agent of the type, the number of agents
+     * skipped before the next one the event happens to is drawn from the geometric
+     * distribution.  This gives exactly the same chances as a roll for each agent, but
+     * costs time in proportion to the number of events rather than the population.
+     * @param environment Environment holding the agents
+     * @param type Type of agent the event can happen to
+     * @param chance Chance of the event happening to each agent, from 0 to 1
+     * @param logFailure Natural logarithm of 1 - chance
+     * @param event Distinguishes the event's stream of random numbers from the others
+     */
+    private void sampleEvent(Environment environment, AgentType type, double chance, double logFailure, int event)
+    {
+	sampled.clear();
+	if (!(chance > 0))
+	{
+	    return;
+	}
+	int count = environment.countAgentsOfType(type);
+	stepRandom.reset(seed, simStep, event, BACKGROUND_STREAM);
+	for (long i = stepRandom.nextGap(logFailure); i < count; i += 1 + stepRandom.nextGap(logFailure))
 	{
-	    Agent a = new Susceptible(i, parameters, random);
-	    a.acquireNewDirections();
-	    environment.addAgent(a);
+	    sampled.add(environment.getAgentOfType(type, (int)i));
+	}
+    }
+
+    /**
+     * Decides the background events of a step - Infected becoming Zombified, births, natural
+     * deaths and natural infection - before any encounters take place
+     *
+     * The Infected whose latency runs out this step are taken from the latency wheel.
+     * Each Susceptible gives birth with the chance of birth, and otherwise dies with the
+     * chance of natural death.  Sampling the two independently over every Susceptible and
+     * letting birth win gives the same chances.  Likewise an Infected whose latency has
+     * run out becomes Zombified instead of being able to die.
+     */
+    private void sampleBackgroundEvents(Environment environment)
+    {
+	AgentStore agents = environment.getAgentStore();
+	toIntroduce.clear();
+	backgroundSlots.clear();
+	backgroundTypes.clear();
+
+	latencyExpired.clear();
+	latencyWheel.advance(simStep, latencyExpired);
+	for (int i = 0; i < latencyExpired.size(); i++)
+	{
+	    int a = latencyExpired.get(i);
+	    if (agents.getType(a) == INFECTED_ID && latencyDue[a] <= simStep)
+	    {
+		queueBackgroundTransition(a, ZOMBIFIED_ID);
+	    }
+	}
+
+	// this represents births
+	sampleEvent(environment, SUSCEPTIBLE, compiled.getBirthChance(), compiled.getBirthLogFailure(), 0);
+	for (int i = 0; i < sampled.size(); i++)
+	{
+	    int a = sampled.get(i);
+	    toIntroduce.add(a);
+	    occupy(a);
+	}
+
+	// this represents people dying
+	sampleEvent(environment, SUSCEPTIBLE, compiled.getNaturalDeathChance(), compiled.getNaturalDeathLogFailure(), 1);
+	for (int i = 0; i < sampled.size(); i++)
+	{
+	    queueBackgroundTransition(sampled.get(i), REMOVED_ID);
+	}
+	sampleEvent(environment, INFECTED, compiled.getNaturalDeathChance(), compiled.getNaturalDeathLogFailure(), 2);
+	for (int i = 0; i < sampled.size(); i++)
+	{
+	    queueBackgroundTransition(sampled.get(i), REMOVED_ID);
+	}
+
+	// this represents natural outbreaks
+	sampleEvent(environment, REMOVED, compiled.getNaturalInfectionChance(), compiled.getNaturalInfectionLogFailure(), 3);
+	for (int i = 0; i < sampled.size(); i++)
+	{
+	    queueBackgroundTransition(sampled.get(i), INFECTED_ID);
+	}
+    }
+
+    private void queueBackgroundTransition(int slot, int type)
+    {
+	if (!isOccupied(slot))
+	{
+	    backgroundSlots.add(slot);
+	    backgroundTypes.add(type);
+	    occupy(slot);
+	}
+    }
+
+    /**
+     * Sorts the agents of the environment by cell, so that each tile walks its cells through
+     * neighbouring memory, and moves the slots held by the latency wheel along with them
+     */
+    private void sortAgents(Environment environment)
+    {
+	int size = environment.getAgentStore().size();
+	if (latencyDue.length < size)
+	{
+	    latencyDue = Arrays.copyOf(latencyDue, size);
+	}
+	int[] moves = environment.sortAgentsByCell();
+	int[] due = new int[latencyDue.length];
+	for (int slot = 0; slot < size; slot++)
+	{
+	    due[moves[slot]] = latencyDue[slot];
+	}
+	latencyDue = due;
+	latencyWheel.remap(moves);
+    }
+
+    /**
+     * The first phase of a step, which decides everything that happens to the agents
+     *
+     * Nothing is changed in this phase: every decision reads the state the previous step
+     * left, and is recorded as an intent - a birth, a transition, or (drawn later, as it
+     * only ever concerns the agent itself) a move.  The only conflicts are over agents,
+     * as each agent takes part in at most one event a step.  They are settled by claiming
+     * agents (see {@link #occupy(int)}) in a fixed order: background events first, then
+     * the encounters of each tile in tile order, then the held back border zombies in tile
+     * order.  An intent whose agents have already been claimed is dropped.  The order only
+     * depends on the state and the seed, so the results do not depend on the threads.
+     * @param environment Environment holding the agents
+     * @param monsterActive Whether zombies are hunting this step
+     */
+    private void decide(Environment environment, boolean monsterActive)
+    {
+	sampleBackgroundEvents(environment);
+	runTiles(environment, false, monsterActive);
+	for (Tile tile : tiles)
+	{
+	    tile.resolveBorder(environment);
+	}
+    }
+
+    /**
+     * The second phase of a step, which makes the changes decided by {@link #decide(Environment, boolean)}
+     *
+     * Agents move first, each from its own state alone, so the order they move in makes no
+     * difference.  The births are added next, beside their parents, and then the transitions
+     * are made in the order their agents were claimed.
+     * @param environment Environment holding the agents
+     */
+    private void commit(Environment environment)
+    {
+	AgentStore agents = environment.getAgentStore();
+	runTiles(environment, true, false);
+	for (Tile tile : tiles)
+	{
+	    tile.exchange(environment);
+	}
+
+	for (int i = 0; i < toIntroduce.size(); i++)
+	{
+	    int parent = toIntroduce.get(i);
+	    addAgent(environment, AgentCounter.getAgentId(), SUSCEPTIBLE_ID, agents.getX(parent), agents.getY(parent), simStep);
+	}
+	for (int i = 0; i < backgroundSlots.size(); i++)
+	{
+	    environment.queueTransition(backgroundSlots.get(i), backgroundTypes.get(i));
+	}
+	for (Tile tile : tiles)
+	{
+	    for (int i = 0; i < tile.transitionSlots.size(); i++)
+	    {
+		environment.queueTransition(tile.transitionSlots.get(i), tile.transitionTypes.get(i));
+	    }
+	}
+	environment.commitTransitions(transitionListener);
+    }
+
+    /**
+     * Covers the cells of the environment with tiles, if it has changed size since they were made
+     */
+    private void prepareTiles(Environment environment)
+    {
+	int cellsWide = environment.getCellsWide();
+	int cellsHigh = environment.getCellsHigh();
+	if (cellsWide == tiledCellsWide && cellsHigh == tiledCellsHigh)
+	{
+	    return;
+	}
+	int tilesWide = (cellsWide + TILE_SIZE - 1) / TILE_SIZE;
+	int tilesHigh = (cellsHigh + TILE_SIZE - 1) / TILE_SIZE;
+	tiles = new Tile[tilesWide * tilesHigh];
+	for (int j = 0; j < tilesHigh; j++)
+	{
+	    for (int i = 0; i < tilesWide; i++)
+	    {
+		tiles[i + j * tilesWide] = new Tile(i * TILE_SIZE, Math.min(cellsWide, (i + 1) * TILE_SIZE) - 1,
+			j * TILE_SIZE, Math.min(cellsHigh, (j + 1) * TILE_SIZE) - 1);
+	    }
+	}
+	tiledCellsWide = cellsWide;
+	tiledCellsHigh = cellsHigh;
+    }
+
+    @Override
+    public boolean updateEnvironment(Environment environment)
+    {
+	int numberSusceptible = environment.countAgentsOfType(SUSCEPTIBLE);
+	int numberZombified = environment.countAgentsOfType(ZOMBIFIED);
+	int numberInfected = environment.countAgentsOfType(INFECTED);
+	int numberRemoved = environment.countAgentsOfType(REMOVED);
+
+	int stepsPerHalfDay = 2;
+        int dayOrNight = simStep / stepsPerHalfDay % 2;
+        if (dayOrNight == 0) parameters.setTimeOfDay(Parameters.TimeOfDay.DAY);
+        else if (dayOrNight == 1) parameters.setTimeOfDay(Parameters.TimeOfDay.NIGHT);
+
+        int lunarPhase = (simStep/(stepsPerHalfDay*2)) % 28;
+        parameters.setCurrentLunarPhase(lunarPhase);
+
+        boolean monsterActive = false;
+        if (parameters.getTimeOfDay() == Parameters.TimeOfDay.DAY
+                && parameters.isMonsterActiveDuringDay())
+        {
+            monsterActive = true;
+        }
+        if (parameters.getTimeOfDay() == Parameters.TimeOfDay.NIGHT
+                && parameters.isMonsterActiveDuringNight())
+        {
+            if (parameters.activeDuringLunarPhase(lunarPhase))
+            {
+                monsterActive = true;
+            }
+        }
+
+	compiled = new CompiledZombieParameters(parameters);
+
+	synchronized(environment)
+	{
+	    AgentStore agents = environment.getAgentStore();
+	    if (parameters.getSortInterval() > 0 && simStep % parameters.getSortInterval() == 0)
+	    {
+		sortAgents(environment);
+	    }
+	    prepareTiles(environment);
+	    if (occupied.length < agents.size())
+	    {
+		occupied = Arrays.copyOf(occupied, Math.max(agents.size(), occupied.length * 2));
+	    }
+	    if (++occupiedStamp == 0)
+	    {
+		Arrays.fill(occupied, 0);
+		occupiedStamp = 1;
+	    }
+
+	    decide(environment, monsterActive);
+	    commit(environment);
+
+	    int totalPopulation = numberSusceptible + numberRemoved + numberZombified + numberInfected;
+	    int totalPopulationAffected = numberRemoved + numberZombified + numberInfected;
+	    double percentageAffected = 100*(double) totalPopulationAffected / (double) totalPopulation;
+	    if (!parameters.isAwarenessRaised() && percentageAffected > parameters.getAwarenessRaisedAt())
+	    {
+		parameters.setAwarenessRaised(true);
+	    }
+
 	}
         simStep++;
         
 //	if (environment.getAgentsOfType(ZOMBIFIED).size() == parameters.getPopulation())
-	if (environment.getAgentsOfType(SUSCEPTIBLE).size() == 0)
+	if (environment.countAgentsOfType(SUSCEPTIBLE) == 0)
 //		&& environment.getAgentsOfType(INFECTED).size() == 0)
 //		&& environment.getAgentsOfType(REMOVED).size() == 0)
 	{
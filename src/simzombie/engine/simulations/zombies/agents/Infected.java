@@ -24,6 +24,7 @@ package simzombie.engine.simulations.zombies.agents;
 
 import simzombie.engine.Parameters;
 import simzombie.engine.Agent;
+import simzombie.engine.environment.AgentStore;
 import simzombie.engine.simulations.zombies.ZombieParameters;
 import simzombie.engine.simulations.zombies.ZombieSimulation;
 import java.util.Random;
@@ -37,6 +38,12 @@ import java.util.Random;
  */
 public class Infected extends Agent {
 
+    /**
+     * Fixed at the version this class had before agents were kept in an AgentStore, so
+     * saved simulations holding these agents can still be loaded
+     */
+    private static final long serialVersionUID = 7411191743575398956L;
+
     /**
      * Countdown to becoming zombified
      */
@@ -62,6 +69,21 @@ public class Infected extends Agent {
 	}
     }
 
+    /**
+     * Constructs an Infected from the state held in a slot of an {@link AgentStore}
+     * @param store Store holding the agent
+     * @param slot Slot of the agent within the store
+     * @param parameters Parameters of the simulation
+     * @param r Random object for consistent randomisation
+     */
+    public Infected(AgentStore store, int slot, Parameters parameters, Random r)
+    {
+	super(store, slot, parameters, r);
+	type = ZombieSimulation.INFECTED;
+	latencyPeriodRemaining = store.getLatency(slot);
+	ableToMove = !store.hasFlag(slot, AgentStore.IMMOBILE);
+    }
+
     /**
      * Also decrements latencyPeriodRemaining upon moving
      */
@@ -81,6 +103,18 @@ public class Infected extends Agent {
         return latencyPeriodRemaining <= 0;
     }
 
+    @Override
+    public int getLatency()
+    {
+	return latencyPeriodRemaining;
+    }
+
+    @Override
+    public boolean isImmobile()
+    {
+	return !ableToMove;
+    }
+
     /**
      * Only acquires directions greater than 0, 0 if ableToMove is true
      */
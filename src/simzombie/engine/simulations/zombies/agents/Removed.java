@@ -24,6 +24,7 @@ package simzombie.engine.simulations.zombies.agents;
 
 import simzombie.engine.Parameters;
 import simzombie.engine.Agent;
+import simzombie.engine.environment.AgentStore;
 import simzombie.engine.simulations.zombies.ZombieSimulation;
 import java.util.Random;
 
@@ -36,12 +37,31 @@ import java.util.Random;
  */
 public class Removed extends Agent {
 
+    /**
+     * Fixed at the version this class had before agents were kept in an AgentStore, so
+     * saved simulations holding these agents can still be loaded
+     */
+    private static final long serialVersionUID = 1970362812289417979L;
+
     public Removed(Agent a, Parameters parameters, Random r)
     {
         super(a, parameters, r);
         type = ZombieSimulation.REMOVED;
     }
 
+    /**
+     * Constructs a Removed from the state held in a slot of an {@link AgentStore}
+     * @param store Store holding the agent
+     * @param slot Slot of the agent within the store
+     * @param parameters Parameters of the simulation
+     * @param r Random object for consistent randomisation
+     */
+    public Removed(AgentStore store, int slot, Parameters parameters, Random r)
+    {
+	super(store, slot, parameters, r);
+	type = ZombieSimulation.REMOVED;
+    }
+
     /**
      * Overridden to disallow movement of Removed agents
      * @return Always false
@@ -51,6 +71,12 @@ public class Removed extends Agent {
 	return false;
     }
 
+    @Override
+    public boolean isImmobile()
+    {
+	return true;
+    }
+
     /**
      * Overriden so that Removed agents cannot acquire directions greater than 0
      */
@@ -24,6 +24,7 @@ package simzombie.engine.simulations.zombies.agents;
 
 import simzombie.engine.Parameters;
 import simzombie.engine.Agent;
+import simzombie.engine.environment.AgentStore;
 import simzombie.engine.simulations.zombies.ZombieSimulation;
 import simzombie.engine.utils.AgentCounter;
 import java.util.Random;
@@ -39,6 +40,12 @@ import java.util.Random;
  */
 public class Susceptible extends Agent {
 
+    /**
+     * Fixed at the version this class had before agents were kept in an AgentStore, so
+     * saved simulations holding these agents can still be loaded
+     */
+    private static final long serialVersionUID = -3706604154297492801L;
+
 
     public Susceptible(Agent a, Parameters parameters, Random r)
     {
@@ -56,6 +63,19 @@ public class Susceptible extends Agent {
         type = ZombieSimulation.SUSCEPTIBLE;
     }
 
+    /**
+     * Constructs a Susceptible from the state held in a slot of an {@link AgentStore}
+     * @param store Store holding the agent
+     * @param slot Slot of the agent within the store
+     * @param parameters Parameters of the simulation
+     * @param r Random object for consistent randomisation
+     */
+    public Susceptible(AgentStore store, int slot, Parameters parameters, Random r)
+    {
+	super(store, slot, parameters, r);
+	type = ZombieSimulation.SUSCEPTIBLE;
+    }
+
     /**
      * A susceptible moves 1 in 10 steps
      * @return True if the susceptible moves this step, false otherwise
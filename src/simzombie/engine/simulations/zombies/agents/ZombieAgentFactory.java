@@ -0,0 +1,81 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.simulations.zombies.agents;
+
+import simzombie.engine.Agent;
+import simzombie.engine.environment.AgentFactory;
+import simzombie.engine.environment.AgentStore;
+import simzombie.engine.simulations.zombies.ZombieParameters;
+import simzombie.engine.simulations.zombies.ZombieSimulation;
+import java.util.Random;
+
+/**
+ * Creates the agents of the zombie simulation from an {@link AgentStore}
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class ZombieAgentFactory implements AgentFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Parameters handed to every agent created
+     */
+    private ZombieParameters parameters;
+
+    /**
+     * Random handed to every agent created
+     */
+    private Random random;
+
+    /**
+     * Constructs a factory for a zombie simulation
+     * @param parameters Parameters of the simulation
+     * @param random The simulation's Random
+     */
+    public ZombieAgentFactory(ZombieParameters parameters, Random random)
+    {
+	this.parameters = parameters;
+	this.random = random;
+    }
+
+    @Override
+    public Agent createAgent(AgentStore store, int slot)
+    {
+	int type = store.getType(slot);
+	if (type == ZombieSimulation.INFECTED.getUniqueIdentifier())
+	{
+	    return new Infected(store, slot, parameters, random);
+	}
+	else if (type == ZombieSimulation.ZOMBIFIED.getUniqueIdentifier())
+	{
+	    return new Zombified(store, slot, parameters, random);
+	}
+	else if (type == ZombieSimulation.REMOVED.getUniqueIdentifier())
+	{
+	    return new Removed(store, slot, parameters, random);
+	}
+	return new Susceptible(store, slot, parameters, random);
+    }
+}
@@ -24,6 +24,7 @@ package simzombie.engine.simulations.zombies.agents;
 
 import simzombie.engine.Parameters;
 import simzombie.engine.Agent;
+import simzombie.engine.environment.AgentStore;
 import simzombie.engine.simulations.zombies.ZombieParameters;
 import simzombie.engine.simulations.zombies.ZombieSimulation;
 import java.util.Random;
@@ -39,12 +40,31 @@ import java.util.Random;
  */
 public class Zombified extends Agent {
 
+    /**
+     * Fixed at the version this class had before agents were kept in an AgentStore, so
+     * saved simulations holding these agents can still be loaded
+     */
+    private static final long serialVersionUID = 315517011092524575L;
+
     public Zombified(Agent a, Parameters parameters, Random r)
     {
         super(a, parameters, r);
         type = ZombieSimulation.ZOMBIFIED;
     }
 
+    /**
+     * Constructs a Zombified from the state held in a slot of an {@link AgentStore}
+     * @param store Store holding the agent
+     * @param slot Slot of the agent within the store
+     * @param parameters Parameters of the simulation
+     * @param r Random object for consistent randomisation
+     */
+    public Zombified(AgentStore store, int slot, Parameters parameters, Random r)
+    {
+	super(store, slot, parameters, r);
+        type = ZombieSimulation.ZOMBIFIED;
+    }
+
     /**
      * Acquires a random speed in the zombie movement range, and sometimes changes directions also
      */
@@ -22,21 +22,24 @@
 
 package simzombie.engine.utils;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Keeps track of agent IDs as new agents are spawned
  *
- * Ensures each agent has its own unique identifier
+ * Ensures each agent has its own unique identifier, even when several simulations
+ * are creating agents at the same time
  * @author      Matthew Crossley <m.crossley@mmu.ac.uk>
  * @version     1.0
  * @since       2011-10-28
  */
 public class AgentCounter {
 
-    private static int currentAgentId = 0;
+    private static final AtomicInteger currentAgentId = new AtomicInteger(0);
 
     public static int getAgentId()
     {
-        return currentAgentId++;
+        return currentAgentId.getAndIncrement();
     }
 
 }
@@ -0,0 +1,146 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.utils;
+
+/**
+ * A small random number generator whose sequence is chosen by a key rather than by history
+ *
+ * {@link #reset(long, int, int, int)} starts the sequence belonging to a seed, a step,
+ * an agent and a stream, so the numbers an agent draws do not depend on which thread
+ * handles it or on what any other agent drew before it.  The generator is SplitMix64;
+ * it is not thread safe, so each thread keeps its own and resets it for each agent.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class CounterRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * 2^53, the number of values {@link #happens(long)} draws from
+     */
+    private static final double UNIT = 0x1p53;
+
+    private long state;
+
+    /**
+     * Starts the sequence for a key
+     * @param seed Seed of the run
+     * @param step Step of the simulation
+     * @param id Id of the agent
+     * @param stream Distinguishes several sequences used by the same agent in the same step
+     */
+    public void reset(long seed, int step, int id, int stream)
+    {
+	long key = mix(seed + GOLDEN_GAMMA * (((long)step << 32) | (id & 0xFFFFFFFFL)));
+	state = mix(key + GOLDEN_GAMMA * (stream + 1));
+    }
+
+    /**
+     * Derives an independent seed from another, such as the seed of one repeat of a run
+     * @param seed Seed to split
+     * @param index Which of the derived seeds to return
+     * @return The derived seed
+     */
+    public static long split(long seed, int index)
+    {
+	return mix(mix(seed) + GOLDEN_GAMMA * (index + 1));
+    }
+
+    /**
+     * @return The next 64 random bits
+     */
+    public long nextLong()
+    {
+	state += GOLDEN_GAMMA;
+	return mix(state);
+    }
+
+    /**
+     * Draws a random number from 0 (inclusive) to a bound (exclusive)
+     *
+     * Uses the top 32 bits of a draw, scaled to the bound, which is biased by at most
+     * bound / 2^32 - far too little to matter for the bounds a simulation uses.
+     * @param bound Upper bound, which must be positive
+     * @return A random number from 0 to bound - 1
+     */
+    public int nextInt(int bound)
+    {
+	return (int)(((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Converts a probability into a threshold for {@link #happens(long)}
+     *
+     * The threshold is the probability scaled to 53 bits, which is as many as a double
+     * holds, so an event happens with exactly the given probability (to within 2^-53).
+     * @param probability Probability of the event, from 0 to 1; values outside are clamped
+     * @return The threshold, from 0 (never) to 2^53 (always)
+     */
+    public static long threshold(double probability)
+    {
+	if (!(probability > 0))
+	{
+	    return 0;
+	}
+	return (long)(Math.min(probability, 1) * UNIT);
+    }
+
+    /**
+     * Rolls the dice for an event, using a single draw
+     * @param threshold Threshold of the event, from {@link #threshold(double)}
+     * @return True if the event should happen
+     */
+    public boolean happens(long threshold)
+    {
+	return (nextLong() >>> 11) < threshold;
+    }
+
+    /**
+     * Draws the number of failed trials before the first success, from the geometric distribution
+     *
+     * Taking the chance of failure as a logarithm lets it be worked out once for many draws.
+     * @param logFailure Natural logarithm of the chance of a trial failing, from {@code Math.log1p(-chance)}
+     * @return Number of failures, up to Integer.MAX_VALUE
+     */
+    public int nextGap(double logFailure)
+    {
+	// a uniform number in (0, 1], so the logarithm is never infinite
+	double u = ((nextLong() >>> 11) + 1) / UNIT;
+	double gap = Math.floor(Math.log(u) / logFailure);
+	return gap < Integer.MAX_VALUE ? (int)gap : Integer.MAX_VALUE;
+    }
+
+    /**
+     * The SplitMix64 finaliser, which scrambles a value so that nearby inputs give unrelated outputs
+     * @param z Value to scramble
+     * @return Scrambled value
+     */
+    public static long mix(long z)
+    {
+	z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	return z ^ (z >>> 31);
+    }
+}
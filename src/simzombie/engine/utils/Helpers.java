@@ -45,8 +45,9 @@ public class Helpers {
      */
     public static double distanceBetween(Agent one, Agent two)
     {
-        return Math.pow(two.getLocation().getX() - one.getLocation().getX(), 2) +
-                Math.pow(two.getLocation().getY() - one.getLocation().getY(), 2);
+        int dx = two.getLocation().getX() - one.getLocation().getX();
+        int dy = two.getLocation().getY() - one.getLocation().getY();
+        return dx * dx + dy * dy;
     }
 
 }
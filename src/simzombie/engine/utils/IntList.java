@@ -0,0 +1,85 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, without boxing
+ *
+ * Intended to be kept and reused: {@link #clear()} keeps the array, so a list
+ * that is filled and emptied every step stops allocating once it is big enough.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class IntList implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] values;
+    private int size = 0;
+
+    public IntList()
+    {
+	this(16);
+    }
+
+    public IntList(int capacity)
+    {
+	values = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int value)
+    {
+	if (size == values.length)
+	{
+	    values = Arrays.copyOf(values, size * 2);
+	}
+	values[size++] = value;
+    }
+
+    public int get(int i)
+    {
+	return values[i];
+    }
+
+    public void set(int i, int value)
+    {
+	values[i] = value;
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    /**
+     * Empties the list, keeping its array for reuse
+     */
+    public void clear()
+    {
+	size = 0;
+    }
+}
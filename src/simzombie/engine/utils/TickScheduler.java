@@ -0,0 +1,90 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package simzombie.engine.utils;
+
+/**
+ * Puts the thread running the simulations to sleep until the next step is due
+ *
+ * The thread works out how long it is until any simulation next has something to do
+ * and waits that long with {@link #await(long)}.  Anything which gives a simulation
+ * something to do sooner than that, such as unpausing it, calls {@link #wake()}.
+ * Nothing else costs any time while every simulation is paused.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class TickScheduler {
+
+    /**
+     * Longest the thread sleeps without being woken, so that changes nobody calls
+     * {@link #wake()} for (such as a shorter step delay) are still picked up
+     */
+    private final long longestWait;
+
+    /**
+     * Whether {@link #wake()} has been called since the thread last woke
+     */
+    private boolean woken = false;
+
+    /**
+     * Constructs a scheduler
+     * @param longestWait Longest the thread sleeps without being woken, in milliseconds
+     */
+    public TickScheduler(long longestWait)
+    {
+	this.longestWait = Math.max(1, longestWait);
+    }
+
+    /**
+     * Sleeps until a number of milliseconds have passed, or {@link #wake()} is called.
+     * Returns straight away if it was called since the last wait.
+     * @param millis Milliseconds until the next step is due; 0 or less returns straight away
+     */
+    public synchronized void await(long millis)
+    {
+	long wait = Math.min(millis, longestWait);
+	long end = System.currentTimeMillis() + wait;
+	while (!woken && wait > 0)
+	{
+	    try
+	    {
+		wait(wait);
+	    }
+	    catch (InterruptedException ex)
+	    {
+		Thread.currentThread().interrupt();
+		break;
+	    }
+	    wait = end - System.currentTimeMillis();
+	}
+	woken = false;
+    }
+
+    /**
+     * Wakes the thread waiting in {@link #await(long)}, or stops its next wait from sleeping
+     */
+    public synchronized void wake()
+    {
+	woken = true;
+	notifyAll();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * © 2011 by Matthew Crossley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package simzombie.engine.utils;
+
+import java.io.Serializable;
+
+/**
+ * Schedules values (such as agent slots) against the step they become due at
+ *
+ * Values are kept in a ring of buckets, one per step, so scheduling a value and taking
+ * the values due at a step cost nothing for the values not yet due.  The ring grows
+ * when a value is scheduled further ahead than it reaches.  Steps are taken in order
+ * with {@link #advance(int, IntList)}.
+ *
+ * @version     1.0
+ * @since       2026-10-16
+ */
+public class TimingWheel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * One bucket per step; the number of buckets is always a power of two
+     */
+    private IntList[] buckets;
+
+    /**
+     * The earliest step not yet taken
+     */
+    private int now = 0;
+
+    public TimingWheel()
+    {
+	this(16);
+    }
+
+    /**
+     * Constructs an empty wheel
+     * @param horizon Number of steps ahead values can be scheduled before the wheel needs to grow
+     */
+    public TimingWheel(int horizon)
+    {
+	int size = Integer.highestOneBit(Math.max(horizon, 1) * 2 - 1);
+	buckets = new IntList[size];
+	for (int i = 0; i < size; i++)
+	{
+	    buckets[i] = new IntList();
+	}
+    }
+
+    /**
+     * Empties the wheel, keeping its buckets for reuse
+     * @param step The first step to be taken
+     */
+    public void reset(int step)
+    {
+	for (IntList bucket : buckets)
+	{
+	    bucket.clear();
+	}
+	now = step;
+    }
+
+    /**
+     * Schedules a value
+     * @param value Value to schedule
+     * @param step Step the value is due at.  Values scheduled for a step already taken
+     * are due at the next step taken.
+     */
+    public void schedule(int value, int step)
+    {
+	step = Math.max(step, now);
+	while (step - now >= buckets.length)
+	{
+	    grow();
+	}
+	buckets[step & (buckets.length - 1)].add(value);
+    }
+
+    /**
+     * Takes every value due at or before a step, in the order they were scheduled
+     * within each step.  They are removed from the wheel.
+     * @param step Step to take the values of
+     * @param due List the values are added to
+     */
+    public void advance(int step, IntList due)
+    {
+	int mask = buckets.length - 1;
+	for (; now <= step; now++)
+	{
+	    IntList bucket = buckets[now & mask];
+	    for (int i = 0; i < bucket.size(); i++)
+	    {
+		due.add(bucket.get(i));
+	    }
+	    bucket.clear();
+	}
+    }
+
+    /**
+     * Replaces every scheduled value, such as when the agent slots scheduled have moved
+     * @param replacements The value to replace each value with, indexed by the old value
+     */
+    public void remap(int[] replacements)
+    {
+	for (IntList bucket : buckets)
+	{
+	    for (int i = 0; i < bucket.size(); i++)
+	    {
+		bucket.set(i, replacements[bucket.get(i)]);
+	    }
+	}
+    }
+
+    /**
+     * Doubles the number of buckets, moving each step's values to its new bucket
+     */
+    private void grow()
+    {
+	int oldMask = buckets.length - 1;
+	IntList[] grown = new IntList[buckets.length * 2];
+	int mask = grown.length - 1;
+	for (int step = now; step < now + buckets.length; step++)
+	{
+	    grown[step & mask] = buckets[step & oldMask];
+	}
+	for (int i = 0; i < grown.length; i++)
+	{
+	    if (grown[i] == null)
+	    {
+		grown[i] = new IntList();
+	    }
+	}
+	buckets = grown;
+    }
+}